@@ -30,8 +30,5 @@ android {
 }
 
 dependencies {
-    implementation(libs.smali.dexlib2)
-    implementation(libs.guava)
-    implementation(libs.asm)
-    implementation(libs.asm.tree)
+    implementation(project(":extractor"))
 }
\ No newline at end of file
@@ -26,14 +26,32 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.provider.Settings;
+import android.view.View;
 import android.widget.LinearLayout;
 import android.widget.ScrollView;
 import android.widget.TextView;
 
-import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
 
 public class MainActivity extends Activity {
+    // The visible log is redrawn at most this often, from the last bytes of the output
+    private static final long FRAME_MILLIS = 100;
+    private static final int LOG_TAIL_BYTES = 32 * 1024;
+    private static final String LOG_FILE_NAME = "AndroidApiExtractor.log";
+    private static final String CACHE_DIR_NAME = "extraction";
+
+    private LogSink logSink;
+    private Runnable logUpdater;
+    private View logView;
+    private volatile ExtractionTask task;
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -64,27 +82,99 @@ public class MainActivity extends Activity {
                 LinearLayout.LayoutParams.MATCH_PARENT,
                 LinearLayout.LayoutParams.MATCH_PARENT);
         setContentView(scrollView);
-        System.setOut(
-                new PrintStream(
-                        new ByteArrayOutputStream() {
-                            @Override
-                            public void write(byte[] buf, int off, int len) {
-                                runOnUiThread(() -> textView.append(new String(buf, off, len)));
-                            }
-                        }));
+        File logFile = new File(Environment.getExternalStorageDirectory(), LOG_FILE_NAME);
+        try {
+            logSink = new LogSink(LOG_TAIL_BYTES, logFile);
+        } catch (IOException e) {
+            textView.setText("Failed to create " + logFile + ": " + e);
+            return;
+        }
+        System.setOut(new PrintStream(logSink));
         System.setErr(System.out);
+
+        logView = scrollView;
+        logUpdater =
+                () -> {
+                    String tail = logSink.pollTail();
+                    if (tail != null) {
+                        boolean atBottom = !scrollView.canScrollVertically(1);
+                        textView.setText(tail);
+                        if (atBottom) scrollView.post(() -> scrollView.fullScroll(View.FOCUS_DOWN));
+                    }
+                    scrollView.postDelayed(logUpdater, FRAME_MILLIS);
+                };
+        scrollView.post(logUpdater);
+
+        LogSink sink = logSink;
         new Thread() {
             @Override
             public void run() {
                 try {
-                    AndroidApiExtractor.main(new String[] {getExternalCacheDir().getPath()});
+                    extract();
                 } catch (Throwable e) {
                     e.printStackTrace();
+                } finally {
+                    try {
+                        sink.close();
+                    } catch (IOException e) {
+                        e.printStackTrace();
+                    }
+                    System.out.println("Full log: " + sink.getFile());
                 }
             }
         }.start();
     }
 
+    @Override
+    protected void onDestroy() {
+        if (logView != null) logView.removeCallbacks(logUpdater);
+        // Stops at a checkpoint, the next start resumes from there
+        ExtractionTask task = this.task;
+        if (isFinishing() && task != null) task.requestCancel();
+        super.onDestroy();
+    }
+
+    private void extract() throws InterruptedException, ExecutionException {
+        String bootClassPath = System.getenv("BOOTCLASSPATH");
+        if (bootClassPath == null) return;
+        AndroidApiExtractor extractor = new AndroidApiExtractor(Build.VERSION.SDK_INT);
+        // Checkpoints to the cache, so that a run that was killed continues where it stopped
+        extractor.setCacheDir(new File(getCacheDir(), CACHE_DIR_NAME));
+        // Falls back to one jar at a time when the boot jars do not fit into the app's heap
+        extractor.setHeapBudget(Runtime.getRuntime().maxMemory());
+        extractor.setListener(
+                new ExtractionListener() {
+                    private long lastTenth;
+
+                    @Override
+                    public void onPhaseStarted(String phase) {
+                        lastTenth = 0;
+                    }
+
+                    @Override
+                    public void onProgress(String phase, long done, long total) {
+                        long tenth = done * 10 / total;
+                        if (tenth == lastTenth) return;
+                        lastTenth = tenth;
+                        System.out.println(phase + ": " + tenth * 10 + "%");
+                    }
+                });
+        List<String> jars = Arrays.asList(bootClassPath.split(":"));
+        // The extractor keeps the first definition it loads, so a class that several jars define
+        // comes from the last of them on BOOTCLASSPATH
+        Collections.reverse(jars);
+        String name = AndroidApiExtractor.getJarName(Build.VERSION.SDK_INT);
+        File androidJar = new File(Environment.getExternalStorageDirectory(), name);
+        extractor.setReportFile(new File(androidJar.getPath() + ".json"));
+        task = extractor.extractAsync(jars, androidJar);
+        try {
+            task.get();
+            System.out.println("Done!");
+        } catch (CancellationException e) {
+            System.out.println("Cancelled");
+        }
+    }
+
     private boolean hasFilePermission() {
         return Build.VERSION.SDK_INT >= Build.VERSION_CODES.R
                 ? Environment.isExternalStorageManager()
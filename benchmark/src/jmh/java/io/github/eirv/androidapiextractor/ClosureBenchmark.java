@@ -0,0 +1,84 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Searches the inaccessible classes referenced by the public API of a boot jar. The time per
+ * operation should grow linearly with the class count.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ClosureBenchmark {
+    @Param({"1000", "2000", "4000", "8000"})
+    public int classCount;
+
+    @Param({"8"})
+    public int depth;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private DexFixture fixture;
+    private AndroidApiExtractor extractor;
+    private BitSet roots;
+
+    @Setup
+    public void setup() {
+        fixture = DexFixture.create(classCount, depth);
+        extractor = new AndroidApiExtractor(DexFixture.API_LEVEL);
+        extractor.setParallelism(parallelism);
+
+        // Every inaccessible class, so that close() walks the whole graph
+        ClassTable classTable = fixture.classTable;
+        TypeGraph graph = new TypeGraph(classTable);
+        roots = new BitSet(graph.size());
+        for (int id = 0; classTable.size() > id; id++) {
+            graph.addRoot(roots, classTable.getType(id));
+        }
+    }
+
+    @Benchmark
+    public Object searchReferencedInaccessibleClasses() throws Exception {
+        return extractor.searchReferencedInaccessibleClasses(fixture.classTable);
+    }
+
+    /** Only the graph, without collecting the referenced types. */
+    @Benchmark
+    public Object closeGraph() {
+        return new TypeGraph(fixture.classTable).close(roots);
+    }
+}
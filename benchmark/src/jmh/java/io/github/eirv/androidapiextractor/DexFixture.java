@@ -0,0 +1,502 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import static org.objectweb.asm.Opcodes.ACC_ABSTRACT;
+import static org.objectweb.asm.Opcodes.ACC_ANNOTATION;
+import static org.objectweb.asm.Opcodes.ACC_FINAL;
+import static org.objectweb.asm.Opcodes.ACC_INTERFACE;
+import static org.objectweb.asm.Opcodes.ACC_PRIVATE;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+import static org.objectweb.asm.Opcodes.ACC_STATIC;
+
+import com.android.tools.smali.dexlib2.AnnotationVisibility;
+import com.android.tools.smali.dexlib2.HiddenApiRestriction;
+import com.android.tools.smali.dexlib2.Opcode;
+import com.android.tools.smali.dexlib2.Opcodes;
+import com.android.tools.smali.dexlib2.dexbacked.DexBackedClassDef;
+import com.android.tools.smali.dexlib2.dexbacked.DexBackedDexFile;
+import com.android.tools.smali.dexlib2.dexbacked.DexBackedMethod;
+import com.android.tools.smali.dexlib2.iface.AnnotationElement;
+import com.android.tools.smali.dexlib2.iface.ClassDef;
+import com.android.tools.smali.dexlib2.iface.debug.DebugItem;
+import com.android.tools.smali.dexlib2.iface.instruction.Instruction;
+import com.android.tools.smali.dexlib2.iface.value.EncodedValue;
+import com.android.tools.smali.dexlib2.immutable.ImmutableAnnotation;
+import com.android.tools.smali.dexlib2.immutable.ImmutableAnnotationElement;
+import com.android.tools.smali.dexlib2.immutable.ImmutableClassDef;
+import com.android.tools.smali.dexlib2.immutable.ImmutableField;
+import com.android.tools.smali.dexlib2.immutable.ImmutableMethod;
+import com.android.tools.smali.dexlib2.immutable.ImmutableMethodImplementation;
+import com.android.tools.smali.dexlib2.immutable.ImmutableMethodParameter;
+import com.android.tools.smali.dexlib2.immutable.debug.ImmutableStartLocal;
+import com.android.tools.smali.dexlib2.immutable.instruction.ImmutableInstruction10x;
+import com.android.tools.smali.dexlib2.immutable.instruction.ImmutableInstruction11n;
+import com.android.tools.smali.dexlib2.immutable.instruction.ImmutableInstruction11x;
+import com.android.tools.smali.dexlib2.immutable.value.ImmutableAnnotationEncodedValue;
+import com.android.tools.smali.dexlib2.immutable.value.ImmutableArrayEncodedValue;
+import com.android.tools.smali.dexlib2.immutable.value.ImmutableBooleanEncodedValue;
+import com.android.tools.smali.dexlib2.immutable.value.ImmutableIntEncodedValue;
+import com.android.tools.smali.dexlib2.immutable.value.ImmutableStringEncodedValue;
+import com.android.tools.smali.dexlib2.immutable.value.ImmutableTypeEncodedValue;
+import com.android.tools.smali.dexlib2.writer.io.MemoryDataStore;
+import com.android.tools.smali.dexlib2.writer.pool.DexPool;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Generates a synthetic boot jar whose shape resembles the framework: chains of subclasses,
+ * package-private types leaking into public signatures, member classes, generic signatures,
+ * annotations with nested values, debug info and hidden API flags. The output only depends on
+ * the arguments, so every fork benchmarks the same input.
+ */
+final class DexFixture {
+    static final int API_LEVEL = 34;
+    static final Opcodes OPCODES = Opcodes.forApi(API_LEVEL);
+
+    private static final String PACKAGE = "Landroid/bench/";
+    private static final int PACKAGES = 8;
+    private static final int ANNOTATIONS = 4;
+    private static final int FIELDS = 6;
+    private static final int METHODS = 8;
+    private static final int ACC_DECLARED_SYNCHRONIZED = 0x20000;
+    private static final String[] PRIMITIVES = {"Z", "I", "J", "F", "D"};
+    private static final HiddenApiRestriction[] RESTRICTIONS = {
+        HiddenApiRestriction.WHITELIST,
+        HiddenApiRestriction.GREYLIST,
+        HiddenApiRestriction.BLACKLIST,
+        HiddenApiRestriction.GREYLIST_MAX_O,
+        HiddenApiRestriction.GREYLIST_MAX_P
+    };
+
+    final byte[] dex;
+    final DexBackedDexFile dexFile;
+    final ClassTable classTable = new ClassTable();
+
+    private final int classCount;
+    private final int depth;
+    private final Random random;
+
+    private DexFixture(int classCount, int depth, long seed) {
+        this.classCount = classCount;
+        this.depth = depth;
+        random = new Random(seed);
+
+        DexPool pool = new DexPool(OPCODES);
+        for (ClassDef classDef : generate()) {
+            pool.internClass(classDef);
+        }
+        MemoryDataStore store = new MemoryDataStore();
+        try {
+            pool.writeTo(store);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        dex = Arrays.copyOf(store.getBuffer(), store.getSize());
+        dexFile = new DexBackedDexFile(OPCODES, dex);
+        for (DexBackedClassDef classDef : dexFile.getClasses()) {
+            classTable.add(classDef);
+        }
+        classTable.link();
+    }
+
+    /**
+     * @param classCount the number of top-level classes, member classes and annotation types
+     *     come on top of it
+     * @param depth the length of each chain of subclasses
+     */
+    static DexFixture create(int classCount, int depth) {
+        return new DexFixture(classCount, depth, 0x5eed);
+    }
+
+    /** Returns every method of the fixture, in dex order. */
+    List<DexBackedMethod> getMethods() {
+        ArrayList<DexBackedMethod> methods = new ArrayList<>();
+        for (DexBackedClassDef classDef : dexFile.getClasses()) {
+            for (DexBackedMethod method : classDef.getMethods()) {
+                methods.add(method);
+            }
+        }
+        return methods;
+    }
+
+    /** Writes the dex as the only entry of a jar, stored like on the device. */
+    File writeJar() throws IOException {
+        File file = File.createTempFile("fixture", ".jar");
+        file.deleteOnExit();
+        //noinspection IOStreamConstructor
+        try (JarWriter jar = new JarWriter(new FileOutputStream(file), JarWriter.STORED)) {
+            jar.write("classes.dex", dex);
+        }
+        return file;
+    }
+
+    private List<ClassDef> generate() {
+        ArrayList<ClassDef> result = new ArrayList<>();
+        for (int i = 0; ANNOTATIONS > i; i++) {
+            result.add(makeAnnotationType(i));
+        }
+        for (int i = 0; classCount > i; i++) {
+            String type = getClassType(i);
+            String superclass =
+                    i % depth == 0 ? TypeUtils.TYPE_OBJECT : getClassType(i - 1);
+            // Every fourth class is package-private and only reachable through signatures of
+            // public ones, which is what the closure has to find
+            int accessFlags = i % 4 == 3 ? 0 : ACC_PUBLIC;
+            ArrayList<ImmutableAnnotation> annotations = new ArrayList<>();
+            annotations.addAll(makeAnnotations(2));
+            if (i % 3 == 0) {
+                annotations.add(
+                        makeSignature(
+                                "<T:",
+                                TypeUtils.TYPE_OBJECT,
+                                ">",
+                                superclass,
+                                "Ljava/lang/Comparable<",
+                                "TT;",
+                                ">;"));
+            }
+            if (i % 5 == 0) {
+                String memberType = getMemberType(i);
+                annotations.add(
+                        new ImmutableAnnotation(
+                                AnnotationVisibility.SYSTEM,
+                                TypeUtils.TYPE_DALVIK_MEMBER_CLASSES,
+                                Collections.singleton(
+                                        element(
+                                                "value",
+                                                new ImmutableArrayEncodedValue(
+                                                        Collections.singletonList(
+                                                                new ImmutableTypeEncodedValue(
+                                                                        memberType)))))));
+                result.add(makeMemberClass(type, memberType, i));
+            }
+            result.add(
+                    new ImmutableClassDef(
+                            type,
+                            accessFlags,
+                            superclass,
+                            Collections.singletonList("Ljava/lang/Comparable;"),
+                            "C" + i + ".java",
+                            annotations,
+                            makeFields(type),
+                            makeMethods(type, (accessFlags & ACC_PUBLIC) != 0)));
+        }
+        return result;
+    }
+
+    private ClassDef makeAnnotationType(int index) {
+        String type = PACKAGE + "A" + index + ";";
+        ArrayList<ImmutableMethod> methods = new ArrayList<>();
+        methods.add(method(type, "value", TypeUtils.TYPE_STRING, ACC_PUBLIC | ACC_ABSTRACT));
+        methods.add(method(type, "count", "I", ACC_PUBLIC | ACC_ABSTRACT));
+        methods.add(method(type, "enabled", "Z", ACC_PUBLIC | ACC_ABSTRACT));
+        ImmutableAnnotation defaults =
+                new ImmutableAnnotation(
+                        AnnotationVisibility.SYSTEM,
+                        TypeUtils.TYPE_DALVIK_ANNOTATION_DEFAULT,
+                        Collections.singleton(
+                                element(
+                                        "value",
+                                        new ImmutableAnnotationEncodedValue(
+                                                type,
+                                                Arrays.asList(
+                                                        element(
+                                                                "count",
+                                                                new ImmutableIntEncodedValue(0)),
+                                                        element(
+                                                                "enabled",
+                                                                ImmutableBooleanEncodedValue
+                                                                        .TRUE_VALUE))))));
+        return new ImmutableClassDef(
+                type,
+                ACC_PUBLIC | ACC_INTERFACE | ACC_ABSTRACT | ACC_ANNOTATION,
+                TypeUtils.TYPE_OBJECT,
+                Collections.singletonList("Ljava/lang/annotation/Annotation;"),
+                "A" + index + ".java",
+                Collections.singleton(defaults),
+                Collections.emptyList(),
+                methods);
+    }
+
+    private ClassDef makeMemberClass(String outerType, String type, int index) {
+        int accessFlags = index % 10 == 0 ? ACC_PUBLIC | ACC_STATIC : ACC_PRIVATE | ACC_STATIC;
+        ArrayList<ImmutableAnnotation> annotations = new ArrayList<>();
+        annotations.add(
+                new ImmutableAnnotation(
+                        AnnotationVisibility.SYSTEM,
+                        TypeUtils.TYPE_DALVIK_ENCLOSING_CLASS,
+                        Collections.singleton(
+                                element("value", new ImmutableTypeEncodedValue(outerType)))));
+        annotations.add(
+                new ImmutableAnnotation(
+                        AnnotationVisibility.SYSTEM,
+                        TypeUtils.TYPE_DALVIK_INNER_CLASS,
+                        Arrays.asList(
+                                element("accessFlags", new ImmutableIntEncodedValue(accessFlags)),
+                                element("name", new ImmutableStringEncodedValue("Member")))));
+        return new ImmutableClassDef(
+                type,
+                ACC_PUBLIC | ACC_FINAL,
+                TypeUtils.TYPE_OBJECT,
+                null,
+                "C" + index + ".java",
+                annotations,
+                makeFields(type),
+                makeMethods(type, true));
+    }
+
+    private List<ImmutableField> makeFields(String type) {
+        ArrayList<ImmutableField> fields = new ArrayList<>();
+        for (int i = 0; FIELDS > i; i++) {
+            int accessFlags = i == 0 ? ACC_PUBLIC | ACC_STATIC | ACC_FINAL : ACC_PUBLIC;
+            if (i == FIELDS - 1) accessFlags = ACC_PRIVATE;
+            ArrayList<ImmutableAnnotation> annotations = new ArrayList<>(makeAnnotations(1));
+            String fieldType = i == 0 ? "I" : getRandomType();
+            if (i == 1) {
+                fieldType = "Ljava/util/List;";
+                annotations.add(makeSignature("Ljava/util/List<", getRandomClassType(), ">;"));
+            }
+            fields.add(
+                    new ImmutableField(
+                            type,
+                            "f" + i,
+                            fieldType,
+                            accessFlags,
+                            i == 0 ? new ImmutableIntEncodedValue(random.nextInt()) : null,
+                            annotations,
+                            makeHiddenApiRestrictions()));
+        }
+        return fields;
+    }
+
+    private List<ImmutableMethod> makeMethods(String type, boolean accessible) {
+        ArrayList<ImmutableMethod> methods = new ArrayList<>();
+        methods.add(method(type, "<init>", "V", ACC_PUBLIC | 0x10000 /* constructor */));
+        for (int i = 0; METHODS > i; i++) {
+            int accessFlags = i == METHODS - 1 ? ACC_PRIVATE : ACC_PUBLIC;
+            if (i % 3 == 2) accessFlags |= ACC_STATIC;
+            if (i % 4 == 1) accessFlags |= ACC_DECLARED_SYNCHRONIZED;
+            String returnType = i % 2 == 0 ? "V" : getRandomType();
+
+            ArrayList<ImmutableMethodParameter> parameters = new ArrayList<>();
+            int parameterCount = 1 + random.nextInt(4);
+            for (int p = 0; parameterCount > p; p++) {
+                // Only some methods keep their names in the debug info header, the rest have to
+                // be matched against the local variables
+                String name = i % 3 == 0 ? null : "arg" + p;
+                parameters.add(
+                        new ImmutableMethodParameter(
+                                getRandomType(),
+                                p == 0 ? makeAnnotations(1) : Collections.emptySet(),
+                                name));
+            }
+
+            HashSet<ImmutableAnnotation> annotations = new HashSet<>(makeAnnotations(2));
+            // Half of the methods also have a MethodParameters annotation, with the same names
+            if (i % 6 < 3 && i % 3 != 2) annotations.add(makeMethodParameters(parameters));
+            if (i % 4 == 0) {
+                EncodedValue exception = new ImmutableTypeEncodedValue("Ljava/io/IOException;");
+                annotations.add(
+                        new ImmutableAnnotation(
+                                AnnotationVisibility.SYSTEM,
+                                TypeUtils.TYPE_DALVIK_THROWS,
+                                Collections.singleton(
+                                        element(
+                                                "value",
+                                                new ImmutableArrayEncodedValue(
+                                                        Collections.singletonList(exception))))));
+            }
+
+            methods.add(
+                    new ImmutableMethod(
+                            type,
+                            "m" + i,
+                            parameters,
+                            returnType,
+                            accessFlags,
+                            annotations,
+                            accessible ? makeHiddenApiRestrictions() : null,
+                            makeImplementation(parameters, accessFlags, returnType)));
+        }
+        return methods;
+    }
+
+    private static ImmutableMethodImplementation makeImplementation(
+            List<ImmutableMethodParameter> parameters, int accessFlags, String returnType) {
+        int inCount = (accessFlags & ACC_STATIC) != 0 ? 0 : 1;
+        for (ImmutableMethodParameter parameter : parameters) {
+            char c = parameter.getType().charAt(0);
+            inCount += c == 'J' || c == 'D' ? 2 : 1;
+        }
+        int registerCount = inCount + 2;
+
+        ArrayList<DebugItem> debugItems = new ArrayList<>();
+        int register = registerCount;
+        for (int i = parameters.size() - 1; i != -1; i--) {
+            ImmutableMethodParameter parameter = parameters.get(i);
+            char c = parameter.getType().charAt(0);
+            register -= c == 'J' || c == 'D' ? 2 : 1;
+            if (parameter.getName() != null) continue;
+            debugItems.add(
+                    new ImmutableStartLocal(0, register, "local" + i, parameter.getType(), null));
+        }
+
+        ArrayList<Instruction> instructions = new ArrayList<>();
+        if ((accessFlags & ACC_DECLARED_SYNCHRONIZED) != 0) {
+            instructions.add(new ImmutableInstruction11x(Opcode.MONITOR_ENTER, 0));
+            instructions.add(new ImmutableInstruction11x(Opcode.MONITOR_EXIT, 0));
+        }
+        if ("V".equals(returnType)) {
+            instructions.add(new ImmutableInstruction10x(Opcode.RETURN_VOID));
+        } else {
+            char c = returnType.charAt(0);
+            Opcode opcode =
+                    c == 'L' || c == '['
+                            ? Opcode.RETURN_OBJECT
+                            : c == 'J' || c == 'D' ? Opcode.RETURN_WIDE : Opcode.RETURN;
+            instructions.add(new ImmutableInstruction11n(Opcode.CONST_4, 0, 0));
+            instructions.add(new ImmutableInstruction11x(opcode, 0));
+        }
+        return new ImmutableMethodImplementation(registerCount, instructions, null, debugItems);
+    }
+
+    private static ImmutableMethod method(
+            String type, String name, String returnType, int accessFlags) {
+        ImmutableMethodImplementation implementation = null;
+        if ((accessFlags & ACC_ABSTRACT) == 0) {
+            implementation =
+                    new ImmutableMethodImplementation(
+                            1,
+                            Collections.singletonList(
+                                    new ImmutableInstruction10x(Opcode.RETURN_VOID)),
+                            null,
+                            null);
+        }
+        return new ImmutableMethod(
+                type,
+                name,
+                Collections.emptyList(),
+                returnType,
+                accessFlags,
+                null,
+                null,
+                implementation);
+    }
+
+    private Set<ImmutableAnnotation> makeAnnotations(int max) {
+        int count = random.nextInt(max + 1);
+        if (count == 0) return Collections.emptySet();
+        HashSet<ImmutableAnnotation> annotations = new HashSet<>();
+        if (random.nextInt(8) == 0) {
+            annotations.add(
+                    new ImmutableAnnotation(
+                            AnnotationVisibility.RUNTIME,
+                            TypeUtils.TYPE_DEPRECATED,
+                            Collections.emptySet()));
+        }
+        // One annotation per type, dex does not allow repeating them on the same element
+        int first = random.nextInt(ANNOTATIONS);
+        for (int i = 0; count > i && ANNOTATIONS > i; i++) {
+            String type = PACKAGE + "A" + (first + i) % ANNOTATIONS + ";";
+            annotations.add(
+                    new ImmutableAnnotation(
+                            random.nextBoolean()
+                                    ? AnnotationVisibility.RUNTIME
+                                    : AnnotationVisibility.BUILD,
+                            type,
+                            Arrays.asList(
+                                    element(
+                                            "value",
+                                            new ImmutableStringEncodedValue(
+                                                    "v" + random.nextInt(100))),
+                                    element(
+                                            "count",
+                                            new ImmutableIntEncodedValue(random.nextInt())))));
+        }
+        return annotations;
+    }
+
+    private static ImmutableAnnotation makeMethodParameters(
+            List<ImmutableMethodParameter> parameters) {
+        ArrayList<EncodedValue> names = new ArrayList<>();
+        ArrayList<EncodedValue> accessFlags = new ArrayList<>();
+        for (int i = 0; parameters.size() > i; i++) {
+            String name = parameters.get(i).getName();
+            names.add(new ImmutableStringEncodedValue(name != null ? name : "local" + i));
+            accessFlags.add(new ImmutableIntEncodedValue(0));
+        }
+        return new ImmutableAnnotation(
+                AnnotationVisibility.SYSTEM,
+                TypeUtils.TYPE_DALVIK_METHOD_PARAMETERS,
+                Arrays.asList(
+                        element("names", new ImmutableArrayEncodedValue(names)),
+                        element("accessFlags", new ImmutableArrayEncodedValue(accessFlags))));
+    }
+
+    private static ImmutableAnnotation makeSignature(String... parts) {
+        ArrayList<EncodedValue> values = new ArrayList<>();
+        for (String part : parts) {
+            values.add(new ImmutableStringEncodedValue(part));
+        }
+        return new ImmutableAnnotation(
+                AnnotationVisibility.SYSTEM,
+                TypeUtils.TYPE_DALVIK_SIGNATURE,
+                Collections.singleton(element("value", new ImmutableArrayEncodedValue(values))));
+    }
+
+    private Set<HiddenApiRestriction> makeHiddenApiRestrictions() {
+        EnumSet<HiddenApiRestriction> restrictions =
+                EnumSet.of(RESTRICTIONS[random.nextInt(RESTRICTIONS.length)]);
+        if (random.nextInt(6) == 0) restrictions.add(HiddenApiRestriction.CORE_PLATFORM_API);
+        return restrictions;
+    }
+
+    private static AnnotationElement element(String name, EncodedValue value) {
+        return new ImmutableAnnotationElement(name, value);
+    }
+
+    private String getRandomType() {
+        int n = random.nextInt(4);
+        if (n == 0) return PRIMITIVES[random.nextInt(PRIMITIVES.length)];
+        if (n == 1) return TypeUtils.TYPE_STRING;
+        return getRandomClassType();
+    }
+
+    private String getRandomClassType() {
+        return getClassType(random.nextInt(classCount));
+    }
+
+    private static String getClassType(int index) {
+        return PACKAGE + "p" + index % PACKAGES + "/C" + index + ";";
+    }
+
+    private static String getMemberType(int index) {
+        return PACKAGE + "p" + index % PACKAGES + "/C" + index + "$Member;";
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import com.android.tools.smali.dexlib2.dexbacked.DexBackedDexFile;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** Loads the dex files of a boot jar, through {@link DexLoader} and through dexlib2. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class LoadBenchmark {
+    @Param({"2000"})
+    public int classCount;
+
+    @Param({"8"})
+    public int depth;
+
+    private File jar;
+
+    @Setup
+    public void setup() throws IOException {
+        jar = DexFixture.create(classCount, depth).writeJar();
+    }
+
+    @Benchmark
+    public void load(Blackhole blackhole) throws IOException {
+        consume(blackhole, DexLoader.load(jar, DexFixture.OPCODES));
+    }
+
+    @Benchmark
+    public void loadWithDexFileFactory(Blackhole blackhole) throws IOException {
+        consume(blackhole, DexLoader.loadWithDexFileFactory(jar, DexFixture.OPCODES));
+    }
+
+    private static void consume(Blackhole blackhole, List<DexBackedDexFile> dexFiles) {
+        for (DexBackedDexFile dexFile : dexFiles) {
+            blackhole.consume(dexFile.getClasses().size());
+        }
+    }
+}
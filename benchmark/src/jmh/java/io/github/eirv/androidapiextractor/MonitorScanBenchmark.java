@@ -0,0 +1,214 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+
+import com.android.tools.smali.dexlib2.Opcode;
+import com.android.tools.smali.dexlib2.builder.Label;
+import com.android.tools.smali.dexlib2.builder.MethodImplementationBuilder;
+import com.android.tools.smali.dexlib2.builder.SwitchLabelElement;
+import com.android.tools.smali.dexlib2.builder.instruction.BuilderArrayPayload;
+import com.android.tools.smali.dexlib2.builder.instruction.BuilderInstruction10x;
+import com.android.tools.smali.dexlib2.builder.instruction.BuilderInstruction11x;
+import com.android.tools.smali.dexlib2.builder.instruction.BuilderInstruction12x;
+import com.android.tools.smali.dexlib2.builder.instruction.BuilderInstruction21c;
+import com.android.tools.smali.dexlib2.builder.instruction.BuilderInstruction31t;
+import com.android.tools.smali.dexlib2.builder.instruction.BuilderInstruction35c;
+import com.android.tools.smali.dexlib2.builder.instruction.BuilderInstruction51l;
+import com.android.tools.smali.dexlib2.builder.instruction.BuilderPackedSwitchPayload;
+import com.android.tools.smali.dexlib2.builder.instruction.BuilderSparseSwitchPayload;
+import com.android.tools.smali.dexlib2.dexbacked.DexBackedClassDef;
+import com.android.tools.smali.dexlib2.dexbacked.DexBackedDexFile;
+import com.android.tools.smali.dexlib2.dexbacked.DexBackedMethod;
+import com.android.tools.smali.dexlib2.iface.MethodImplementation;
+import com.android.tools.smali.dexlib2.immutable.ImmutableClassDef;
+import com.android.tools.smali.dexlib2.immutable.ImmutableMethod;
+import com.android.tools.smali.dexlib2.immutable.reference.ImmutableMethodReference;
+import com.android.tools.smali.dexlib2.immutable.reference.ImmutableStringReference;
+import com.android.tools.smali.dexlib2.writer.io.MemoryDataStore;
+import com.android.tools.smali.dexlib2.writer.pool.DexPool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks for {@code monitor-enter} in declared-synchronized methods of different sizes, by
+ * decoding every instruction, by walking the code units, and not at all. Half of the methods have
+ * one right before they return, so both scans have to walk almost the whole method.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MonitorScanBenchmark {
+    private static final String TYPE = "Landroid/bench/Synchronized;";
+    private static final int METHODS = 256;
+    private static final int ACC_DECLARED_SYNCHRONIZED = 0x20000;
+
+    /** The number of blocks of seven instructions in each method. */
+    @Param({"8", "512"})
+    public int blockCount;
+
+    private DexBackedMethod[] methods;
+    private MonitorScanner scanner;
+
+    @Setup
+    public void setup() {
+        ArrayList<ImmutableMethod> generated = new ArrayList<>();
+        for (int i = 0; METHODS > i; i++) {
+            generated.add(
+                    new ImmutableMethod(
+                            TYPE,
+                            "m" + i,
+                            null,
+                            "V",
+                            ACC_PUBLIC | ACC_DECLARED_SYNCHRONIZED,
+                            null,
+                            null,
+                            makeImplementation(i % 2 == 0)));
+        }
+        DexPool pool = new DexPool(DexFixture.OPCODES);
+        pool.internClass(
+                new ImmutableClassDef(
+                        TYPE,
+                        ACC_PUBLIC,
+                        TypeUtils.TYPE_OBJECT,
+                        null,
+                        null,
+                        null,
+                        null,
+                        generated));
+        MemoryDataStore store = new MemoryDataStore();
+        try {
+            pool.writeTo(store);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        DexBackedDexFile dexFile =
+                new DexBackedDexFile(
+                        DexFixture.OPCODES, Arrays.copyOf(store.getBuffer(), store.getSize()));
+
+        ArrayList<DexBackedMethod> result = new ArrayList<>();
+        for (DexBackedClassDef classDef : dexFile.getClasses()) {
+            for (DexBackedMethod method : classDef.getMethods()) {
+                result.add(method);
+            }
+        }
+        methods = result.toArray(new DexBackedMethod[0]);
+        scanner = new MonitorScanner(DexFixture.OPCODES);
+        for (DexBackedMethod method : methods) {
+            MethodImplementation implementation = method.getImplementation();
+            if (scanner.hasMonitorEnter(implementation)
+                    != MonitorScanner.decode(implementation)) {
+                throw new IllegalStateException("Scans disagree on " + method);
+            }
+        }
+    }
+
+    @Benchmark
+    public int decodeInstructions() {
+        int count = 0;
+        for (DexBackedMethod method : methods) {
+            if (MonitorScanner.decode(method.getImplementation())) count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int scanCodeUnits() {
+        int count = 0;
+        for (DexBackedMethod method : methods) {
+            if (scanner.hasMonitorEnter(method.getImplementation())) count++;
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int trustAccessFlag() {
+        int count = 0;
+        for (DexBackedMethod method : methods) {
+            if ((method.getAccessFlags() & ACC_DECLARED_SYNCHRONIZED) != 0) count++;
+        }
+        return count;
+    }
+
+    /** Mixes every instruction size, including the three payloads. */
+    private MethodImplementation makeImplementation(boolean monitorEnter) {
+        MethodImplementationBuilder builder = new MethodImplementationBuilder(3);
+        Label end = builder.getLabel("end");
+        List<Label> targets = Collections.singletonList(end);
+        ImmutableMethodReference hashCode =
+                new ImmutableMethodReference(
+                        TypeUtils.TYPE_OBJECT, "hashCode", null, "I");
+        for (int i = 0; blockCount > i; i++) {
+            builder.addInstruction(
+                    new BuilderInstruction21c(
+                            Opcode.CONST_STRING, 0, new ImmutableStringReference("s" + i)));
+            builder.addInstruction(new BuilderInstruction51l(Opcode.CONST_WIDE, 0, i));
+            builder.addInstruction(
+                    new BuilderInstruction35c(Opcode.INVOKE_VIRTUAL, 1, 2, 0, 0, 0, 0, hashCode));
+            builder.addInstruction(new BuilderInstruction12x(Opcode.MOVE, 0, 1));
+            builder.addInstruction(
+                    new BuilderInstruction31t(
+                            Opcode.PACKED_SWITCH, 0, builder.getLabel("packed" + i)));
+            builder.addInstruction(
+                    new BuilderInstruction31t(
+                            Opcode.SPARSE_SWITCH, 0, builder.getLabel("sparse" + i)));
+            builder.addInstruction(
+                    new BuilderInstruction31t(
+                            Opcode.FILL_ARRAY_DATA, 1, builder.getLabel("array" + i)));
+        }
+        if (monitorEnter) {
+            builder.addInstruction(new BuilderInstruction11x(Opcode.MONITOR_ENTER, 2));
+            builder.addInstruction(new BuilderInstruction11x(Opcode.MONITOR_EXIT, 2));
+        }
+        builder.addLabel("end");
+        builder.addInstruction(new BuilderInstruction10x(Opcode.RETURN_VOID));
+        for (int i = 0; blockCount > i; i++) {
+            builder.addLabel("packed" + i);
+            builder.addInstruction(new BuilderPackedSwitchPayload(i, targets));
+            builder.addLabel("sparse" + i);
+            builder.addInstruction(
+                    new BuilderSparseSwitchPayload(
+                            Collections.singletonList(new SwitchLabelElement(i, end))));
+            builder.addLabel("array" + i);
+            builder.addInstruction(
+                    new BuilderArrayPayload(1, Arrays.<Number>asList(1, 2, 3)));
+        }
+        return builder.getMethodImplementation();
+    }
+}
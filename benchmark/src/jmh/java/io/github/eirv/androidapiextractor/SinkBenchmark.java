@@ -0,0 +1,123 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import com.google.common.io.ByteStreams;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes the transformed classes of a boot jar into every kind of {@link OutputSink}: a
+ * deflated, a stored and a package-grouped jar that are thrown away, a directory that is
+ * overwritten every time, and memory.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SinkBenchmark {
+    @Param({"2000"})
+    public int classCount;
+
+    @Param({"8"})
+    public int depth;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    @Param({"jar", "stored", "packages", "directory", "memory"})
+    public String sink;
+
+    private AndroidApiExtractor extractor;
+    private File dir;
+    private PrintStream out;
+
+    @Setup
+    public void setup() throws IOException {
+        // The extractor logs every phase, which would be printed once per invocation
+        out = System.out;
+        System.setOut(new PrintStream(ByteStreams.nullOutputStream()));
+
+        File jar = DexFixture.create(classCount, depth).writeJar();
+        extractor = new AndroidApiExtractor(DexFixture.API_LEVEL);
+        extractor.setParallelism(parallelism);
+        extractor.setResourceApk(null);
+        extractor.extract(Collections.singletonList(jar.getPath()));
+
+        dir = File.createTempFile("sink", "");
+        if (!dir.delete() || !dir.mkdir()) throw new IOException("Failed to create " + dir);
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(out);
+        delete(dir);
+    }
+
+    @Benchmark
+    public long writeTo() throws IOException {
+        OutputSink output = createSink();
+        extractor.writeTo(output);
+        return output.getSize();
+    }
+
+    private OutputSink createSink() throws IOException {
+        switch (sink) {
+            case "jar":
+                return new JarWriter(ByteStreams.nullOutputStream(), 9);
+            case "stored":
+                return new JarWriter(ByteStreams.nullOutputStream(), JarWriter.STORED);
+            case "packages":
+                return new PackageJarSink(ByteStreams.nullOutputStream(), 9);
+            case "directory":
+                return new DirectorySink(dir);
+            case "memory":
+                return new MemorySink();
+            default:
+                throw new IllegalArgumentException(sink);
+        }
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) delete(child);
+        }
+        //noinspection ResultOfMethodCallIgnored
+        file.delete();
+    }
+}
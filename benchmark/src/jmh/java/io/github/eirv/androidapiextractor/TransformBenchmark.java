@@ -0,0 +1,99 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import com.android.tools.smali.dexlib2.dexbacked.DexBackedClassDef;
+import com.android.tools.smali.dexlib2.dexbacked.DexBackedMethod;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transforms every class of a boot jar on a single thread, and resolves the parameters of every
+ * method on its own since it walks the debug info.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TransformBenchmark {
+    @Param({"2000"})
+    public int classCount;
+
+    @Param({"8"})
+    public int depth;
+
+    private DexFixture fixture;
+    private List<DexBackedMethod> methods;
+    private String[][] annotatedNames;
+    private AndroidApiExtractor extractor;
+
+    @Setup
+    public void setup() {
+        fixture = DexFixture.create(classCount, depth);
+        methods = fixture.getMethods();
+        annotatedNames = new String[methods.size()][];
+        TypeNameCache typeNames = new TypeNameCache();
+        for (int i = 0; methods.size() > i; i++) {
+            AnnotationSummary annotations =
+                    AnnotationSummary.decode(methods.get(i).getAnnotations(), typeNames);
+            annotatedNames[i] = annotations.parameterNames;
+        }
+        extractor = new AndroidApiExtractor(DexFixture.API_LEVEL);
+    }
+
+    @Benchmark
+    public void transformClass(Blackhole blackhole) {
+        // A fresh extractor, so the decoded class annotations are not reused across invocations
+        AndroidApiExtractor extractor = new AndroidApiExtractor(DexFixture.API_LEVEL);
+        for (DexBackedClassDef classDef : fixture.classTable.getClassDefs()) {
+            blackhole.consume(extractor.transformClass(classDef, fixture.classTable));
+        }
+    }
+
+    /** With the names of the MethodParameters annotations, as the transform passes them. */
+    @Benchmark
+    public void getParameters(Blackhole blackhole) {
+        for (int i = 0; methods.size() > i; i++) {
+            blackhole.consume(extractor.getParameters(methods.get(i), annotatedNames[i]));
+        }
+    }
+
+    /** Falls back to the debug info for every method. */
+    @Benchmark
+    public void getParametersFromDebugInfo(Blackhole blackhole) {
+        for (DexBackedMethod method : methods) {
+            blackhole.consume(extractor.getParameters(method, null));
+        }
+    }
+}
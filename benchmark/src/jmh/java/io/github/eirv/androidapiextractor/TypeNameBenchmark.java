@@ -0,0 +1,110 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import com.android.tools.smali.dexlib2.dexbacked.DexBackedClassDef;
+import com.android.tools.smali.dexlib2.dexbacked.DexBackedField;
+import com.android.tools.smali.dexlib2.dexbacked.DexBackedMethod;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resolves the type names a transform needs for every class, field and method of a boot jar,
+ * once by decoding them on each use and once through a warm {@link TypeNameCache}. Run with
+ * {@code -prof gc} to compare the allocations per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class TypeNameBenchmark {
+    @Param({"2000"})
+    public int classCount;
+
+    @Param({"8"})
+    public int depth;
+
+    private DexFixture fixture;
+    private List<DexBackedField> fields;
+    private List<DexBackedMethod> methods;
+    private TypeNameCache typeNames;
+
+    @Setup
+    public void setup() {
+        fixture = DexFixture.create(classCount, depth);
+        fields = new ArrayList<>();
+        for (DexBackedClassDef classDef : fixture.dexFile.getClasses()) {
+            for (DexBackedField field : classDef.getFields()) {
+                fields.add(field);
+            }
+        }
+        methods = fixture.getMethods();
+        typeNames = new TypeNameCache();
+    }
+
+    @Benchmark
+    public void decode(Blackhole blackhole) {
+        for (DexBackedClassDef classDef : fixture.classTable.getClassDefs()) {
+            blackhole.consume(TypeUtils.toCfName(classDef.getType()));
+            blackhole.consume(TypeUtils.toCfName(classDef.getSuperclass()));
+            blackhole.consume(TypeUtils.toCfName(classDef.getInterfaces()));
+        }
+        for (DexBackedField field : fields) {
+            blackhole.consume(field.getType());
+        }
+        for (DexBackedMethod method : methods) {
+            blackhole.consume(method.getDefiningClass());
+            blackhole.consume(method.getReturnType());
+            blackhole.consume(TypeUtils.getMethodDescriptor(method));
+        }
+    }
+
+    @Benchmark
+    public void cached(Blackhole blackhole) {
+        for (DexBackedClassDef classDef : fixture.classTable.getClassDefs()) {
+            blackhole.consume(typeNames.toCfName(classDef.getType()));
+            blackhole.consume(typeNames.toCfName(classDef.getSuperclass()));
+            blackhole.consume(typeNames.toCfName(classDef.getInterfaces()));
+        }
+        for (DexBackedField field : fields) {
+            blackhole.consume(typeNames.getFieldType(field));
+        }
+        for (DexBackedMethod method : methods) {
+            blackhole.consume(typeNames.getDefiningClass(method));
+            blackhole.consume(typeNames.getReturnType(method));
+            blackhole.consume(typeNames.getMethodDescriptor(method));
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import com.google.common.io.ByteStreams;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/** Writes the transformed classes of a boot jar into a jar that is thrown away. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WriteBenchmark {
+    @Param({"2000"})
+    public int classCount;
+
+    @Param({"8"})
+    public int depth;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    @Param({"9", "1"})
+    public int compressionLevel;
+
+    private AndroidApiExtractor extractor;
+    private PrintStream out;
+
+    @Setup
+    public void setup() throws IOException {
+        // The extractor logs every phase, which would be printed once per invocation
+        out = System.out;
+        System.setOut(new PrintStream(ByteStreams.nullOutputStream()));
+
+        File jar = DexFixture.create(classCount, depth).writeJar();
+        extractor = new AndroidApiExtractor(DexFixture.API_LEVEL);
+        extractor.setParallelism(parallelism);
+        extractor.setCompressionLevel(compressionLevel);
+        extractor.setResourceApk(null);
+        extractor.extract(Collections.singletonList(jar.getPath()));
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public void writeTo() throws IOException {
+        extractor.writeTo(ByteStreams.nullOutputStream());
+    }
+}
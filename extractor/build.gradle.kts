@@ -0,0 +1,26 @@
+plugins {
+    `java-library`
+    application
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+application {
+    mainClass.set("io.github.eirv.androidapiextractor.BatchExtractor")
+}
+
+dependencies {
+    api(libs.smali.dexlib2)
+    api(libs.guava)
+    api(libs.asm)
+    api(libs.asm.tree)
+    testImplementation(libs.junit)
+}
+
+tasks.test {
+    // Small enough that the low-memory mode is tested where it is meant to be used
+    maxHeapSize = "96m"
+}
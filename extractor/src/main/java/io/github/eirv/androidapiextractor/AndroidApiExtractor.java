@@ -0,0 +1,2362 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import static io.github.eirv.androidapiextractor.ExtractionMetrics.PHASE_CLOSURE;
+import static io.github.eirv.androidapiextractor.ExtractionMetrics.PHASE_INACCESSIBLE;
+import static io.github.eirv.androidapiextractor.ExtractionMetrics.PHASE_LOAD;
+import static io.github.eirv.androidapiextractor.ExtractionMetrics.PHASE_RESOURCES;
+import static io.github.eirv.androidapiextractor.ExtractionMetrics.PHASE_TRANSFORM;
+import static io.github.eirv.androidapiextractor.ExtractionMetrics.PHASE_WRITE;
+import static org.objectweb.asm.Opcodes.*;
+
+import com.android.tools.smali.dexlib2.AnnotationVisibility;
+import com.android.tools.smali.dexlib2.DexFileFactory;
+import com.android.tools.smali.dexlib2.HiddenApiRestriction;
+import com.android.tools.smali.dexlib2.Opcodes;
+import com.android.tools.smali.dexlib2.ValueType;
+import com.android.tools.smali.dexlib2.dexbacked.DexBackedClassDef;
+import com.android.tools.smali.dexlib2.dexbacked.DexBackedDexFile;
+import com.android.tools.smali.dexlib2.dexbacked.DexBackedField;
+import com.android.tools.smali.dexlib2.dexbacked.DexBackedMethod;
+import com.android.tools.smali.dexlib2.iface.Annotation;
+import com.android.tools.smali.dexlib2.iface.AnnotationElement;
+import com.android.tools.smali.dexlib2.iface.BasicAnnotation;
+import com.android.tools.smali.dexlib2.iface.MethodImplementation;
+import com.android.tools.smali.dexlib2.iface.MethodParameter;
+import com.android.tools.smali.dexlib2.iface.debug.DebugItem;
+import com.android.tools.smali.dexlib2.iface.debug.StartLocal;
+import com.android.tools.smali.dexlib2.iface.reference.FieldReference;
+import com.android.tools.smali.dexlib2.iface.reference.MethodReference;
+import com.android.tools.smali.dexlib2.iface.value.AnnotationEncodedValue;
+import com.android.tools.smali.dexlib2.iface.value.ArrayEncodedValue;
+import com.android.tools.smali.dexlib2.iface.value.BooleanEncodedValue;
+import com.android.tools.smali.dexlib2.iface.value.ByteEncodedValue;
+import com.android.tools.smali.dexlib2.iface.value.CharEncodedValue;
+import com.android.tools.smali.dexlib2.iface.value.DoubleEncodedValue;
+import com.android.tools.smali.dexlib2.iface.value.EncodedValue;
+import com.android.tools.smali.dexlib2.iface.value.EnumEncodedValue;
+import com.android.tools.smali.dexlib2.iface.value.FieldEncodedValue;
+import com.android.tools.smali.dexlib2.iface.value.FloatEncodedValue;
+import com.android.tools.smali.dexlib2.iface.value.IntEncodedValue;
+import com.android.tools.smali.dexlib2.iface.value.LongEncodedValue;
+import com.android.tools.smali.dexlib2.iface.value.MethodEncodedValue;
+import com.android.tools.smali.dexlib2.iface.value.ShortEncodedValue;
+import com.android.tools.smali.dexlib2.iface.value.StringEncodedValue;
+import com.android.tools.smali.dexlib2.iface.value.TypeEncodedValue;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.objectweb.asm.tree.InnerClassNode;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+public class AndroidApiExtractor {
+    static final boolean MAKE_TEST_JAR_FOR_JVM = false;
+
+    private static final boolean MAKE_STUB_METHOD = true;
+    private static final boolean TRANSFORM_HIDDEN_API_RESTRICTION = true;
+    private static final boolean APPEND_RESOURCE_FILES = true;
+    private static final boolean APPEND_RESOURCE_BLOCKS = true;
+
+    static final String TYPE_HIDDEN_API_RESTRICTION =
+            "Landroid/annotation/HiddenApiRestriction;";
+    private static final String FIELD_HIDDEN_API_RESTRICTION_VALUE = "value";
+
+    // Indices into parameterNameSources
+    private static final int NAMES_FROM_ANNOTATION = 0;
+    private static final int NAMES_FROM_DEBUG_INFO = 1;
+    private static final int NAMES_FROM_LOCALS = 2;
+    private static final int NAMES_MISSING = 3;
+
+    // The classes of a jar are transformed in chunks of this size, between which the extractor
+    // may checkpoint
+    private static final int CHECKPOINT_CLASSES = 1024;
+
+    private final Opcodes dexOpcodes;
+    private final MonitorScanner monitorScanner;
+
+    private final ConcurrentSkipListMap<String, byte[]> classes = new ConcurrentSkipListMap<>();
+    private final ConcurrentSkipListMap<String, byte[]> inaccessibleClasses =
+            new ConcurrentSkipListMap<>();
+    private final ConcurrentHashMap<String, AnnotationSummary> classAnnotations =
+            new ConcurrentHashMap<>();
+    private final TypeNameCache typeNames = new TypeNameCache();
+    private final LongAdder[] parameterNameSources = {
+        new LongAdder(), new LongAdder(), new LongAdder(), new LongAdder()
+    };
+    private volatile boolean hasHiddenApiRestrictions;
+
+    private int parallelism = Runtime.getRuntime().availableProcessors();
+    private int streamWindow = 256;
+    private int compressionLevel = 9;
+    private boolean parallelDeflate = true;
+    private File resourceApk = new File("/system/framework/framework-res.apk");
+    private boolean mapDexFiles = true;
+    private File cacheDir;
+    private long heapBudget;
+    private boolean trustDeclaredSynchronized;
+    private ExtractionListener listener;
+    private File reportFile;
+    private File fingerprintFile;
+    private File indexFile;
+    private final ConcurrentSkipListMap<String, ApiFingerprint> fingerprints =
+            new ConcurrentSkipListMap<>();
+    private ExtractionMetrics metrics = new ExtractionMetrics(null);
+    private long checkpointInterval = 30000;
+    private volatile boolean cancelled;
+    private ExecutorService workers;
+
+    /**
+     * @param apiLevel the API level of the system the jars come from, which selects the dex
+     *     opcodes
+     */
+    public AndroidApiExtractor(int apiLevel) {
+        dexOpcodes = Opcodes.forApi(apiLevel);
+        monitorScanner = new MonitorScanner(dexOpcodes);
+    }
+
+    /** Returns the name of the jar generated for {@code apiLevel}, e.g. android-34.jar. */
+    public static String getJarName(int apiLevel) {
+        return "android-" + apiLevel + (MAKE_TEST_JAR_FOR_JVM ? "-test.jar" : ".jar");
+    }
+
+    private static Object toAsmValue(EncodedValue encodedValue) {
+        if (encodedValue == null) return null;
+        switch (encodedValue.getValueType()) {
+            case ValueType.BOOLEAN:
+                return ((BooleanEncodedValue) encodedValue).getValue();
+            case ValueType.BYTE:
+                return ((ByteEncodedValue) encodedValue).getValue();
+            case ValueType.SHORT:
+                return ((ShortEncodedValue) encodedValue).getValue();
+            case ValueType.CHAR:
+                return ((CharEncodedValue) encodedValue).getValue();
+            case ValueType.INT:
+                return ((IntEncodedValue) encodedValue).getValue();
+            case ValueType.FLOAT:
+                return ((FloatEncodedValue) encodedValue).getValue();
+            case ValueType.LONG:
+                return ((LongEncodedValue) encodedValue).getValue();
+            case ValueType.DOUBLE:
+                return ((DoubleEncodedValue) encodedValue).getValue();
+            case ValueType.STRING:
+                return ((StringEncodedValue) encodedValue).getValue();
+            case ValueType.TYPE:
+                return Type.getType(((TypeEncodedValue) encodedValue).getValue());
+            case ValueType.NULL:
+                return null;
+            default:
+                throw new AssertionError(encodedValue.getClass().getName());
+        }
+    }
+
+    static boolean isInaccessible(int accessFlags) {
+        if ((accessFlags & ACC_SYNTHETIC) != 0) return true;
+        return (accessFlags & ACC_PUBLIC) == 0 && (accessFlags & ACC_PROTECTED) == 0;
+    }
+
+    private boolean isObjectMethod(DexBackedMethod method, String name) {
+        if ((method.getAccessFlags() & ACC_STATIC) != 0) return false;
+        if (TypeUtils.TYPE_OBJECT.equals(typeNames.getDefiningClass(method))) return false;
+        List<? extends CharSequence> parameterTypes = method.getParameterTypes();
+        int parameterCount = parameterTypes.size();
+        String returnType = typeNames.getReturnType(method);
+        switch (name) {
+            case "clone":
+                return parameterCount == 0 && TypeUtils.TYPE_OBJECT.equals(returnType);
+            case "equals":
+                return parameterCount == 1
+                        && TypeUtils.TYPE_OBJECT.equals(parameterTypes.get(0).toString())
+                        && "Z".equals(returnType);
+            case "finalize":
+                return parameterCount == 0 && "V".equals(returnType);
+            case "hashCode":
+                return parameterCount == 0 && "I".equals(returnType);
+            case "toString":
+                return parameterCount == 0 && TypeUtils.TYPE_STRING.equals(returnType);
+            default:
+                return false;
+        }
+    }
+
+    private static boolean isVisible(Annotation annotation) {
+        return (annotation.getVisibility() & AnnotationVisibility.RUNTIME) != 0;
+    }
+
+    /**
+     * Returns the ids of the inaccessible classes that the accessible API refers to, together with
+     * their inaccessible supertypes. The referenced types are collected on the worker pool in
+     * slices of the class table, each of which marks its roots in a bitset of its own.
+     */
+    BitSet searchReferencedInaccessibleClasses(ClassTable classTable) throws IOException {
+        TypeGraph graph = new TypeGraph(classTable);
+        int size = graph.size();
+        BitSet roots = new BitSet(size);
+        forEach(
+                slice(0, size),
+                range -> {
+                    HashSet<String> types = new HashSet<>();
+                    for (int id = range[0]; range[1] > id; id++) {
+                        if (isInaccessible(classTable.getAccessFlags(id))) continue;
+                        collectReferencedTypes(types, classTable.get(id));
+                    }
+                    BitSet sliceRoots = new BitSet(size);
+                    for (String type : types) {
+                        graph.addRoot(sliceRoots, type);
+                    }
+                    synchronized (roots) {
+                        roots.or(sliceRoots);
+                    }
+                });
+        return graph.close(roots);
+    }
+
+    /**
+     * Splits the ids {@code from} to {@code to} into ranges for the worker pool. There are a few
+     * per thread, so that a slow range does not leave the other threads idle.
+     */
+    private List<int[]> slice(int from, int to) {
+        int size = to - from;
+        int slices = Math.min(size, parallelism * 4);
+        ArrayList<int[]> ranges = new ArrayList<>(slices);
+        for (int i = 0; slices > i; i++) {
+            int start = from + (int) ((long) size * i / slices);
+            int end = from + (int) ((long) size * (i + 1) / slices);
+            ranges.add(new int[] {start, end});
+        }
+        return ranges;
+    }
+
+    /**
+     * Collects every type the accessible API of {@code classDef} refers to. Whether those types
+     * are inaccessible classes is decided later by {@link #resolveReferencedInaccessibleClasses},
+     * so the result only depends on the class itself.
+     */
+    static void collectReferencedTypes(
+            Collection<String> types, DexBackedClassDef classDef) {
+        if (isInaccessible(classDef.getAccessFlags())) return;
+        addToReferencedTypes(types, classDef.getSuperclass());
+        addToReferencedTypes(types, classDef.getAnnotations());
+        for (String i : classDef.getInterfaces()) {
+            addToReferencedTypes(types, i);
+        }
+        for (DexBackedField field : classDef.getFields()) {
+            if (isInaccessible(field.getAccessFlags())) continue;
+            addToReferencedTypes(types, field.getType());
+            addToReferencedTypes(types, field.getAnnotations());
+        }
+        for (DexBackedMethod method : classDef.getMethods()) {
+            if (isInaccessible(method.getAccessFlags())) continue;
+            addToReferencedTypes(types, method.getReturnType());
+            for (MethodParameter param : method.getParameters()) {
+                addToReferencedTypes(types, param.getType());
+                addToReferencedTypes(types, param.getAnnotations());
+            }
+            addToReferencedTypes(types, method.getAnnotations());
+        }
+    }
+
+    private static void addToReferencedTypes(Collection<String> types, String type) {
+        if (type != null) types.add(type);
+    }
+
+    private static void addToReferencedTypes(
+            Collection<String> types, Set<? extends Annotation> annotations) {
+        for (Annotation annotation : annotations) {
+            String type = annotation.getType();
+            switch (type) {
+                case TypeUtils.TYPE_DALVIK_SIGNATURE:
+                case TypeUtils.TYPE_DALVIK_THROWS:
+                case TypeUtils.TYPE_DALVIK_PERMITTED_SUBCLASSES:
+                    break;
+                default:
+                    if (type.startsWith("Ldalvik/annotation")) continue;
+            }
+            addToReferencedTypes(types, type);
+            for (AnnotationElement element : annotation.getElements()) {
+                addToReferencedTypes(types, element.getValue());
+            }
+        }
+    }
+
+    private static void addToReferencedTypes(Collection<String> types, EncodedValue encodedValue) {
+        switch (encodedValue.getValueType()) {
+            case ValueType.ANNOTATION:
+                {
+                    AnnotationEncodedValue v = (AnnotationEncodedValue) encodedValue;
+                    addToReferencedTypes(types, v.getType());
+                    for (AnnotationElement element : v.getElements()) {
+                        addToReferencedTypes(types, element.getValue());
+                    }
+                    break;
+                }
+            case ValueType.ARRAY:
+                {
+                    ArrayEncodedValue v = (ArrayEncodedValue) encodedValue;
+                    for (EncodedValue childValue : v.getValue()) {
+                        addToReferencedTypes(types, childValue);
+                    }
+                    break;
+                }
+            case ValueType.TYPE:
+                {
+                    TypeEncodedValue v = (TypeEncodedValue) encodedValue;
+                    addToReferencedTypes(types, v.getValue());
+                    break;
+                }
+            case ValueType.ENUM:
+                {
+                    FieldReference v = ((EnumEncodedValue) encodedValue).getValue();
+                    addToReferencedTypes(types, v.getDefiningClass());
+                    addToReferencedTypes(types, v.getType());
+                    break;
+                }
+            case ValueType.FIELD:
+                {
+                    FieldReference v = ((FieldEncodedValue) encodedValue).getValue();
+                    addToReferencedTypes(types, v.getDefiningClass());
+                    addToReferencedTypes(types, v.getType());
+                    break;
+                }
+            case ValueType.METHOD:
+                {
+                    MethodReference v = ((MethodEncodedValue) encodedValue).getValue();
+                    addToReferencedTypes(types, v.getDefiningClass());
+                    addToReferencedTypes(types, v.getReturnType());
+                    for (CharSequence parameterType : v.getParameterTypes()) {
+                        addToReferencedTypes(types, String.valueOf(parameterType));
+                    }
+                }
+            default:
+        }
+    }
+
+    /**
+     * Returns the ids of the inaccessible classes among {@code types}, together with their
+     * inaccessible supertypes.
+     */
+    private static BitSet resolveReferencedInaccessibleClasses(
+            ClassTable classTable, Collection<String> types) {
+        TypeGraph graph = new TypeGraph(classTable);
+        BitSet roots = new BitSet(graph.size());
+        for (String type : types) {
+            graph.addRoot(roots, type);
+        }
+        return graph.close(roots);
+    }
+
+    private static int getAndFixDexAccessFlags(
+            DexBackedClassDef classDef, AnnotationSummary annotations) {
+        int accessFlags = classDef.getAccessFlags();
+        if ((accessFlags & ACC_INTERFACE) == 0) {
+            accessFlags |= ACC_SUPER;
+        }
+
+        if (annotations.isRecord) {
+            accessFlags |= ACC_RECORD;
+        }
+
+        return fixDeprecated(accessFlags, annotations);
+    }
+
+    private static int fixDeprecated(int accessFlags, AnnotationSummary annotations) {
+        if (annotations.isDeprecated) {
+            return accessFlags | ACC_DEPRECATED;
+        } else {
+            return accessFlags & ~ACC_DEPRECATED;
+        }
+    }
+
+    /**
+     * Returns the parameters of {@code method} with their names. The names are taken from the
+     * cheapest source that has all of them: the {@code dalvik.annotation.MethodParameters}
+     * annotation, whose names are passed as {@code annotatedNames}, then the parameter names in
+     * the debug info header, and only then the local variables the debug info starts, which
+     * requires decoding its items. The source that completed the names is counted in {@link
+     * #parameterNameSources}.
+     */
+    List<MethodParameterRecord> getParameters(DexBackedMethod method, String[] annotatedNames) {
+        List<String> types = method.getParameterTypes();
+        int count = types.size();
+        if (count == 0) return Collections.emptyList();
+        // Compilers may leave out synthetic parameters, in which case the names cannot be matched
+        if (annotatedNames != null && annotatedNames.length != count) annotatedNames = null;
+
+        ArrayList<MethodParameterRecord> result = new ArrayList<>(count);
+        Iterator<? extends Set<? extends Annotation>> parameterAnnotations =
+                method.getParameterAnnotations().iterator();
+        int missingNames = 0;
+        int id = (method.getAccessFlags() & ACC_STATIC) != 0 ? 0 : 1;
+        for (int i = 0; count > i; i++) {
+            String type = types.get(i);
+            Set<? extends Annotation> annotations =
+                    parameterAnnotations.hasNext()
+                            ? parameterAnnotations.next()
+                            : Collections.emptySet();
+            String name = annotatedNames != null ? annotatedNames[i] : null;
+            if (name == null) missingNames++;
+            result.add(
+                    new MethodParameterRecord(
+                            id, name, type, TypeUtils.getSignature(annotations), annotations));
+            char c = type.charAt(0);
+            id += c == 'J' || c == 'D' ? 2 : 1;
+        }
+        if (missingNames == 0) {
+            parameterNameSources[NAMES_FROM_ANNOTATION].increment();
+            return result;
+        }
+
+        Iterator<String> names = method.getParameterNames();
+        for (int i = 0; count > i && names.hasNext(); i++) {
+            String name = names.next();
+            MethodParameterRecord r = result.get(i);
+            if (r.name != null || name == null) continue;
+            r.name = name;
+            missingNames--;
+        }
+        if (missingNames == 0) {
+            parameterNameSources[NAMES_FROM_DEBUG_INFO].increment();
+            return result;
+        }
+        MethodImplementation implementation = method.getImplementation();
+        if (implementation == null) {
+            parameterNameSources[NAMES_MISSING].increment();
+            return result;
+        }
+
+        id = 1;
+        for (int i = result.size() - 1; i != -1; i--) {
+            MethodParameterRecord r = result.get(i);
+            r.registerId = id;
+            char c = r.type.charAt(0);
+            id += c == 'J' || c == 'D' ? 2 : 1;
+        }
+
+        int registerCount = implementation.getRegisterCount();
+        for (DebugItem debugItem : implementation.getDebugItems()) {
+            if (!(debugItem instanceof StartLocal)) continue;
+            StartLocal startLocal = (StartLocal) debugItem;
+
+            id = registerCount - startLocal.getRegister();
+            for (MethodParameterRecord r : result) {
+                if (r.name != null) continue;
+                if (r.registerId != id || !r.type.equals(startLocal.getType())) continue;
+                r.name = startLocal.getName();
+                r.signature = startLocal.getSignature();
+                missingNames--;
+            }
+
+            if (missingNames == 0) {
+                parameterNameSources[NAMES_FROM_LOCALS].increment();
+                return result;
+            }
+        }
+
+        parameterNameSources[NAMES_MISSING].increment();
+        return result;
+    }
+
+    /** Prints and resets the counts of {@link #parameterNameSources}. */
+    private void printParameterNameSources() {
+        System.out.println(
+                "Parameter names: "
+                        + parameterNameSources[NAMES_FROM_ANNOTATION].sumThenReset()
+                        + " methods from MethodParameters, "
+                        + parameterNameSources[NAMES_FROM_DEBUG_INFO].sumThenReset()
+                        + " from the debug info header, "
+                        + parameterNameSources[NAMES_FROM_LOCALS].sumThenReset()
+                        + " from local variables, "
+                        + parameterNameSources[NAMES_MISSING].sumThenReset()
+                        + " incomplete");
+    }
+
+    /**
+     * Sets the number of threads used to transform classes. {@code 1} transforms everything on
+     * the calling thread, which is useful to compare against the parallel throughput. The output
+     * is the same either way.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("parallelism: " + parallelism);
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Sets how many transformed classes {@link #extractTo} may hold in memory while they wait
+     * for the jar writer.
+     */
+    public void setStreamWindow(int streamWindow) {
+        if (streamWindow < 1) throw new IllegalArgumentException("streamWindow: " + streamWindow);
+        this.streamWindow = streamWindow;
+    }
+
+    /**
+     * Sets the compression level of the output jar, from 1 to 9, or {@link JarWriter#STORED} to
+     * store entries uncompressed.
+     */
+    public void setCompressionLevel(int compressionLevel) {
+        if (compressionLevel < JarWriter.STORED || compressionLevel > 9) {
+            throw new IllegalArgumentException("compressionLevel: " + compressionLevel);
+        }
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Sets whether entries are prepared for the {@link OutputSink}, e.g. deflated and checksummed,
+     * on the worker pool, or serially on the thread that writes the output.
+     */
+    public void setParallelDeflate(boolean parallelDeflate) {
+        this.parallelDeflate = parallelDeflate;
+    }
+
+    /**
+     * Sets the APK whose resources are appended to the jar, framework-res.apk by default, or
+     * {@code null} to append no resources.
+     */
+    public void setResourceApk(File resourceApk) {
+        this.resourceApk = resourceApk;
+    }
+
+    /**
+     * Sets whether dex files are loaded by {@link DexLoader} from memory-mapped input, or by
+     * dexlib2's {@link DexFileFactory}.
+     */
+    public void setMapDexFiles(boolean mapDexFiles) {
+        this.mapDexFiles = mapDexFiles;
+    }
+
+    /**
+     * Sets the directory of the {@link ExtractionCache} used by {@link #extract}, or {@code null}
+     * to always extract every jar from scratch.
+     */
+    public void setCacheDir(File cacheDir) {
+        this.cacheDir = cacheDir;
+    }
+
+    /**
+     * Sets the heap {@link #extractTo} may use, or 0 for no limit. When loading the dex files of
+     * every jar at once would likely exceed it, only one jar is held at a time instead, at the
+     * cost of loading every jar twice. The output then has its entries sorted per jar.
+     */
+    public void setHeapBudget(long heapBudget) {
+        if (heapBudget < 0) throw new IllegalArgumentException("heapBudget: " + heapBudget);
+        this.heapBudget = heapBudget;
+    }
+
+    /**
+     * Sets whether methods with the declared-synchronized flag are marked synchronized without
+     * looking for a {@code monitor-enter} in their code. This skips the scan, but also marks the
+     * methods whose code was compiled without one.
+     */
+    public void setTrustDeclaredSynchronized(boolean trustDeclaredSynchronized) {
+        this.trustDeclaredSynchronized = trustDeclaredSynchronized;
+    }
+
+    /** Sets the listener that receives the events of the {@link #getMetrics metrics}. */
+    public void setListener(ExtractionListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Sets the file the {@link ExtractionMetrics#toJson JSON report} is written to at the end of
+     * {@link #extract}, {@link #extractTo} and {@link #writeTo}, or {@code null} for none.
+     */
+    public void setReportFile(File reportFile) {
+        this.reportFile = reportFile;
+    }
+
+    /**
+     * Sets the file the {@link ApiFingerprint fingerprints} of the written classes are saved to
+     * at the end of {@link #extractTo}, {@link #writeTo} and {@link #updateTo}, for {@link
+     * ApiDiff}, or {@code null}
+     * for none. The classes are fingerprinted on the worker pool as they are written.
+     */
+    public void setFingerprintFile(File fingerprintFile) {
+        this.fingerprintFile = fingerprintFile;
+    }
+
+    /**
+     * Sets the file the {@link SymbolIndex} of the written jar is saved to at the end of {@link
+     * #extractTo}, {@link #writeTo} and {@link #updateTo}, or {@code null} for none.
+     */
+    public void setIndexFile(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * Returns the metrics of the last extraction. {@link #writeTo} adds to those of the {@link
+     * #extract} before it.
+     */
+    public ExtractionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Sets how many milliseconds may pass between checkpoints of a jar that is being
+     * transformed, see {@link #extractAsync}.
+     */
+    public void setCheckpointInterval(long checkpointInterval) {
+        if (checkpointInterval < 0) {
+            throw new IllegalArgumentException("checkpointInterval: " + checkpointInterval);
+        }
+        this.checkpointInterval = checkpointInterval;
+    }
+
+    /**
+     * Makes the running extraction, or the next one, stop at the next class with a {@link
+     * CancellationException}. A jar that is being transformed with a {@link #setCacheDir cache
+     * dir} is checkpointed first. May be called from any thread.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    private void checkCancelled() {
+        if (!cancelled) return;
+        cancelled = false;
+        throw new CancellationException("Extraction cancelled");
+    }
+
+    /**
+     * Extracts {@code jarPaths} to {@code output} on a new thread. The jar is written to a
+     * temporary file next to {@code output} and renamed when it is complete, so that a run that
+     * is cancelled or killed never leaves a broken jar behind.
+     *
+     * <p>With a {@link #setCacheDir cache dir}, every jar is saved to the cache once it is done,
+     * and the classes of the jar in progress are checkpointed every {@link
+     * #setCheckpointInterval checkpointInterval} and on {@link #cancel}. Running the same
+     * extraction again then resumes where the last one stopped, and the jar is {@link #updateTo
+     * updated} rather than rewritten. Without a cache dir, or when the
+     * {@link #setHeapBudget heap budget} calls for one jar at a time, the extraction uses {@link
+     * #extractTo} and starts over every time.
+     */
+    public ExtractionTask extractAsync(List<String> jarPaths, File output) {
+        cancelled = false;
+        ExtractionTask task =
+                new ExtractionTask(
+                        this,
+                        () -> {
+                            boolean checkpointed =
+                                    cacheDir != null
+                                            && (heapBudget == 0
+                                                    || estimateHeapUsage(jarPaths) <= heapBudget);
+                            if (checkpointed) {
+                                extract(jarPaths);
+                                updateTo(output);
+                                return output;
+                            }
+                            File temp = new File(output.getPath() + ".tmp");
+                            //noinspection IOStreamConstructor
+                            try (OutputStream out =
+                                    new BufferedOutputStream(new FileOutputStream(temp))) {
+                                extractTo(jarPaths, out);
+                            } catch (IOException | RuntimeException | Error e) {
+                                //noinspection ResultOfMethodCallIgnored
+                                temp.delete();
+                                throw e;
+                            }
+                            FileUtils.replace(output, temp);
+                            return output;
+                        });
+        task.start();
+        return task;
+    }
+
+    /**
+     * Loads {@code jarPaths} without transforming anything, and returns a provider that
+     * materializes their classes one at a time, keeping the last {@code cacheSize} of them. This
+     * is much quicker than a full extraction when only a few classes are needed.
+     */
+    public ClassProvider openClassProvider(List<String> jarPaths, int cacheSize)
+            throws IOException {
+        metrics = new ExtractionMetrics(listener);
+        return new ClassProvider(this, loadClassTable(jarPaths), cacheSize);
+    }
+
+    public void extract(List<String> jarPaths) throws IOException {
+        ExecutorService pool = startWorkers();
+        try {
+            extractWithWorkers(jarPaths);
+        } finally {
+            stopWorkers(pool);
+        }
+    }
+
+    private void extractWithWorkers(List<String> jarPaths) throws IOException {
+        reset();
+        metrics = new ExtractionMetrics(listener);
+        if (cacheDir != null) {
+            extractIncremental(jarPaths);
+            return;
+        }
+        ClassTable classTable = loadClassTable(jarPaths);
+
+        System.out.println("Searching for referenced inaccessible classes");
+        long[] phase = metrics.startPhase(PHASE_CLOSURE);
+        List<DexBackedClassDef> referenced =
+                classTable.getClassDefs(searchReferencedInaccessibleClasses(classTable));
+        metrics.endPhase(PHASE_CLOSURE, phase, referenced.size());
+
+        System.out.println(
+                "Transforming " + classTable.size() + " classes with " + parallelism + " threads");
+        long start = System.nanoTime();
+        phase = metrics.startPhase(PHASE_TRANSFORM, classTable.size());
+        forEach(
+                classTable.getClassDefs(),
+                classDef -> {
+                    byte[] bytes = transformClass(classDef, classTable);
+                    if (bytes == null) return;
+                    String name = getEntryName(classDef);
+                    if (classes.put(name, bytes) != null) {
+                        System.err.println("Duplicated class: " + name);
+                    }
+                });
+        metrics.endPhase(PHASE_TRANSFORM, phase, classTable.size());
+
+        System.out.println("Transforming " + referenced.size() + " inaccessible classes");
+        phase = metrics.startPhase(PHASE_INACCESSIBLE, referenced.size());
+        forEach(
+                referenced,
+                classDef -> {
+                    byte[] bytes = transformInaccessibleClass(classDef);
+                    if (bytes == null) return;
+                    String name = getEntryName(classDef);
+                    if (inaccessibleClasses.put(name, bytes) != null) {
+                        System.err.println("Duplicated inaccessible class: " + name);
+                    }
+                });
+        metrics.endPhase(PHASE_INACCESSIBLE, phase, referenced.size());
+        System.out.println("Transformed in " + (System.nanoTime() - start) / 1000000 + " ms");
+        printParameterNameSources();
+        classAnnotations.clear();
+        typeNames.clear();
+
+        if (hasHiddenApiRestrictions) {
+            classes.put(
+                    getEntryName(TYPE_HIDDEN_API_RESTRICTION),
+                    makeHiddenApiRestrictionAnnotation());
+        }
+        report();
+    }
+
+    /**
+     * Extracts the given jars and writes the result straight to {@code out}. Unlike {@link
+     * #extract} followed by {@link #writeTo}, transformed classes are handed to a writer thread
+     * through a bounded queue as soon as they are ready, so at most {@link #setStreamWindow
+     * streamWindow} class files are held in memory at any time.
+     *
+     * <p>Classes are written in the same order as {@link #writeTo}. The only difference is that
+     * the {@code HiddenApiRestriction} annotation, which is only known to be needed once every
+     * class has been transformed, follows the accessible classes instead of being sorted among
+     * them.
+     */
+    public void extractTo(List<String> jarPaths, OutputStream out) throws IOException {
+        extractTo(jarPaths, new JarWriter(out, compressionLevel));
+    }
+
+    /**
+     * Like {@link #extractTo(List, OutputStream)}, but writes to {@code sink} and closes it. The
+     * {@link #setCompressionLevel compression level} does not apply, the sink has its own.
+     */
+    public void extractTo(List<String> jarPaths, OutputSink sink) throws IOException {
+        reset();
+        metrics = new ExtractionMetrics(listener);
+        ExecutorService pool = startWorkers();
+        try {
+            if (heapBudget != 0 && estimateHeapUsage(jarPaths) > heapBudget) {
+                extractToInTwoPhases(jarPaths, sink);
+                return;
+            }
+            ClassTable classTable = loadClassTable(jarPaths);
+
+            System.out.println("Searching for referenced inaccessible classes");
+            long[] phase = metrics.startPhase(PHASE_CLOSURE);
+            List<DexBackedClassDef> referenced =
+                    classTable.getClassDefs(searchReferencedInaccessibleClasses(classTable));
+            metrics.endPhase(PHASE_CLOSURE, phase, referenced.size());
+
+            System.out.println(
+                    "Streaming " + classTable.size() + " classes with " + parallelism + " threads");
+            long start = System.nanoTime();
+            phase = metrics.startPhase(PHASE_TRANSFORM, classTable.size());
+            streamToSink(
+                    sink,
+                    sortByEntryName(classTable.getClassDefs()),
+                    AndroidApiExtractor::getEntryName,
+                    classDef -> transformClass(classDef, classTable));
+            if (hasHiddenApiRestrictions) writeHiddenApiRestrictionAnnotation(sink);
+            metrics.endPhase(PHASE_TRANSFORM, phase, classTable.size());
+
+            System.out.println("Streaming " + referenced.size() + " inaccessible classes");
+            phase = metrics.startPhase(PHASE_INACCESSIBLE, referenced.size());
+            streamToSink(
+                    sink,
+                    sortByEntryName(referenced),
+                    AndroidApiExtractor::getEntryName,
+                    this::transformInaccessibleClass);
+            metrics.endPhase(PHASE_INACCESSIBLE, phase, referenced.size());
+            System.out.println("Streamed in " + (System.nanoTime() - start) / 1000000 + " ms");
+            printParameterNameSources();
+            classAnnotations.clear();
+            typeNames.clear();
+
+            writeResources(sink);
+            finish(sink);
+        } finally {
+            stopWorkers(pool);
+            sink.close();
+        }
+    }
+
+    /**
+     * Forgets the results of the last extraction, and whatever one that was cancelled or failed
+     * left behind, so that every extraction starts from nothing.
+     */
+    private void reset() {
+        classes.clear();
+        inaccessibleClasses.clear();
+        classAnnotations.clear();
+        typeNames.clear();
+        fingerprints.clear();
+        for (LongAdder count : parameterNameSources) count.reset();
+        hasHiddenApiRestrictions = false;
+    }
+
+    /**
+     * Estimates the heap needed to hold the dex files of {@code jarPaths} at once. Boot jars store
+     * their dex files, so they take about their own size once loaded, and dexlib2 and the
+     * transform caches take about as much again.
+     */
+    private static long estimateHeapUsage(List<String> jarPaths) {
+        long size = 0;
+        for (String jarPath : jarPaths) {
+            size += new File(jarPath).length();
+        }
+        return size * 2;
+    }
+
+    /**
+     * Like {@link #extractTo}, but never holds the dex files of more than one jar.
+     *
+     * <p>Phase 1 loads the jars one after another and records everything the other jars need to
+     * know about their classes in a {@link ClassTable}: types, access flags, supertypes and
+     * InnerClass annotations, along with the types the accessible API refers to. The dex files
+     * are released before the next jar is loaded. Phase 2 reloads the jars one at a time and
+     * streams out the classes they own, followed by their share of the inaccessible classes.
+     *
+     * <p>The entries are the same as those of {@link #extractTo}, but they are sorted per jar
+     * rather than across the whole output.
+     */
+    private void extractToInTwoPhases(List<String> jarPaths, OutputSink sink)
+            throws IOException {
+        System.out.println("Indexing " + jarPaths.size() + " jars one at a time");
+        ClassTable classTable = new ClassTable();
+        ArrayList<JarInput> jars = new ArrayList<>(jarPaths.size());
+        HashSet<String> types = new HashSet<>();
+        long[] phase = metrics.startPhase(PHASE_LOAD);
+        for (String jarPath : jarPaths) {
+            JarInput jar = loadJar(jarPath, classTable);
+            forEach(
+                    slice(jar.firstId, jar.endId),
+                    range -> {
+                        HashSet<String> sliceTypes = new HashSet<>();
+                        for (int id = range[0]; range[1] > id; id++) {
+                            collectReferencedTypes(sliceTypes, classTable.get(id));
+                        }
+                        synchronized (types) {
+                            types.addAll(sliceTypes);
+                        }
+                    });
+            for (int id = jar.firstId; jar.endId > id; id++) {
+                classTable.setInnerClass(id, InnerClassRecord.findIn(classTable.get(id)));
+            }
+            classTable.release(jar.firstId, jar.endId);
+            jar.release();
+            typeNames.clear();
+            jars.add(jar);
+        }
+        metrics.endPhase(PHASE_LOAD, phase, classTable.size());
+        phase = metrics.startPhase(PHASE_CLOSURE);
+        classTable.link();
+        BitSet referenced = resolveReferencedInaccessibleClasses(classTable, types);
+        metrics.endPhase(PHASE_CLOSURE, phase, referenced.cardinality());
+
+        long start = System.nanoTime();
+        for (JarInput input : jars) {
+            System.out.println("Streaming the classes of " + input.path);
+            phase = metrics.startPhase(PHASE_LOAD);
+            for (DexBackedDexFile dex : loadDexFiles(input.path)) {
+                for (DexBackedClassDef classDef : dex.getClasses()) {
+                    int id = classTable.getId(classDef.getType());
+                    // Skips synthetic classes and those another jar owns, and keeps the
+                    // first definition if the jar has more than one
+                    if (input.firstId > id || id >= input.endId) continue;
+                    if (classTable.get(id) == null) classTable.attach(id, classDef);
+                }
+            }
+            metrics.endPhase(PHASE_LOAD, phase, 0);
+            phase = metrics.startPhase(PHASE_TRANSFORM, input.endId - input.firstId);
+            streamToSink(
+                    sink,
+                    sortByEntryName(classTable.getClassDefs(input.firstId, input.endId)),
+                    AndroidApiExtractor::getEntryName,
+                    classDef -> transformClass(classDef, classTable));
+            metrics.endPhase(PHASE_TRANSFORM, phase, input.endId - input.firstId);
+
+            ArrayList<DexBackedClassDef> inaccessible = new ArrayList<>();
+            for (int id = referenced.nextSetBit(input.firstId);
+                    id != -1 && input.endId > id;
+                    id = referenced.nextSetBit(id + 1)) {
+                inaccessible.add(classTable.get(id));
+            }
+            phase = metrics.startPhase(PHASE_INACCESSIBLE, inaccessible.size());
+            streamToSink(
+                    sink,
+                    sortByEntryName(inaccessible),
+                    AndroidApiExtractor::getEntryName,
+                    this::transformInaccessibleClass);
+            metrics.endPhase(PHASE_INACCESSIBLE, phase, inaccessible.size());
+
+            classTable.release(input.firstId, input.endId);
+            classAnnotations.clear();
+            typeNames.clear();
+        }
+        if (hasHiddenApiRestrictions) writeHiddenApiRestrictionAnnotation(sink);
+        System.out.println("Streamed in " + (System.nanoTime() - start) / 1000000 + " ms");
+        printParameterNameSources();
+
+        writeResources(sink);
+        finish(sink);
+    }
+
+    /**
+     * Like {@link #extract}, but reuses what an {@link ExtractionCache} entry recorded for every
+     * jar whose dex files, owned classes, share of the inaccessible classes and external member
+     * classes are unchanged. Only the other jars are transformed again.
+     */
+    private void extractIncremental(List<String> jarPaths) throws IOException {
+        ExtractionCache cache = new ExtractionCache(cacheDir);
+        ClassTable classTable = new ClassTable();
+        List<JarInput> jars = loadJars(jarPaths, classTable);
+        String options = getCacheOptions();
+        JarInput[] owners = new JarInput[classTable.size()];
+        for (JarInput jar : jars) {
+            jar.key = ExtractionCache.computeKey(jar.dexFiles, options);
+            Arrays.fill(owners, jar.firstId, jar.endId, jar);
+        }
+
+        System.out.println("Searching for referenced inaccessible classes");
+        long[] phase = metrics.startPhase(PHASE_CLOSURE);
+        HashSet<String> types = new HashSet<>();
+        ArrayList<ExtractionCache.Entry> entries = new ArrayList<>(jars.size());
+        boolean[] cached = new boolean[jars.size()];
+        for (int i = 0; jars.size() > i; i++) {
+            JarInput jar = jars.get(i);
+            List<String> ownedTypes = jar.getOwnedTypes();
+            ExtractionCache.Entry entry = cache.read(jar.key);
+            cached[i] = entry != null && entry.ownedTypes.equals(ownedTypes);
+            if (!cached[i]) {
+                entry = new ExtractionCache.Entry(jar.key);
+                entry.ownedTypes.addAll(ownedTypes);
+                HashSet<String> jarTypes = new HashSet<>();
+                for (DexBackedClassDef classDef : jar.owned) {
+                    collectReferencedTypes(jarTypes, classDef);
+                }
+                entry.referencedTypes.addAll(jarTypes);
+                Collections.sort(entry.referencedTypes);
+            }
+            entries.add(entry);
+            types.addAll(entry.referencedTypes);
+        }
+        BitSet referenced = resolveReferencedInaccessibleClasses(classTable, types);
+        metrics.endPhase(PHASE_CLOSURE, phase, referenced.cardinality());
+
+        boolean anyHiddenApiRestrictions = false;
+        long start = System.nanoTime();
+        for (int i = 0; jars.size() > i; i++) {
+            JarInput jar = jars.get(i);
+            ExtractionCache.Entry entry = entries.get(i);
+            ArrayList<String> inaccessibleTypes = new ArrayList<>();
+            for (int id = referenced.nextSetBit(jar.firstId);
+                    id != -1 && jar.endId > id;
+                    id = referenced.nextSetBit(id + 1)) {
+                inaccessibleTypes.add(classTable.getType(id));
+            }
+            Collections.sort(inaccessibleTypes);
+
+            if (cached[i]
+                    && entry.inaccessibleTypes.equals(inaccessibleTypes)
+                    && isUpToDate(entry.externalTypes, classTable, owners)) {
+                System.out.println("Cached: " + jar.path);
+            } else {
+                System.out.println("Transforming " + jar.owned.size() + " classes of " + jar.path);
+                entry = transformJar(cache, jar, entry, inaccessibleTypes, classTable, owners);
+                cache.write(entry);
+                cache.deletePartial(entry.key);
+            }
+            classes.putAll(entry.classes);
+            inaccessibleClasses.putAll(entry.inaccessibleClasses);
+            anyHiddenApiRestrictions |= entry.hasHiddenApiRestrictions;
+        }
+        System.out.println("Transformed in " + (System.nanoTime() - start) / 1000000 + " ms");
+        printParameterNameSources();
+        classAnnotations.clear();
+        typeNames.clear();
+
+        hasHiddenApiRestrictions = anyHiddenApiRestrictions;
+        if (hasHiddenApiRestrictions) {
+            classes.put(
+                    getEntryName(TYPE_HIDDEN_API_RESTRICTION),
+                    makeHiddenApiRestrictionAnnotation());
+        }
+        report();
+    }
+
+    /**
+     * Transforms the classes of {@code jar}. The owned classes are transformed in chunks, and
+     * those done so far are checkpointed to a partial cache entry when {@link
+     * #checkpointInterval} has passed or the extraction is cancelled. A partial entry an earlier
+     * run left for the same inputs is resumed.
+     */
+    private ExtractionCache.Entry transformJar(
+            ExtractionCache cache,
+            JarInput jar,
+            ExtractionCache.Entry previous,
+            List<String> inaccessibleTypes,
+            ClassTable classTable,
+            JarInput[] owners)
+            throws IOException {
+        ExtractionCache.Entry entry = new ExtractionCache.Entry(jar.key);
+        entry.ownedTypes.addAll(previous.ownedTypes);
+        entry.referencedTypes.addAll(previous.referencedTypes);
+        entry.inaccessibleTypes.addAll(inaccessibleTypes);
+        collectExternalMemberClasses(jar, classTable, owners, entry.externalTypes);
+
+        ConcurrentSkipListMap<String, byte[]> jarClasses = new ConcurrentSkipListMap<>();
+        ConcurrentSkipListMap<String, byte[]> jarInaccessibleClasses =
+                new ConcurrentSkipListMap<>();
+        // Jars are transformed one after another, so the flag can be tracked per jar
+        hasHiddenApiRestrictions = false;
+        ExtractionCache.Entry partial = cache.readPartial(jar.key);
+        if (partial != null
+                && partial.ownedTypes.equals(entry.ownedTypes)
+                && partial.inaccessibleTypes.equals(entry.inaccessibleTypes)
+                && partial.externalTypes.equals(entry.externalTypes)) {
+            System.out.println("Resuming after " + partial.classes.size() + " classes");
+            jarClasses.putAll(partial.classes);
+            hasHiddenApiRestrictions = partial.hasHiddenApiRestrictions;
+        }
+
+        long[] phase = metrics.startPhase(PHASE_TRANSFORM, jar.owned.size());
+        long lastCheckpoint = System.nanoTime();
+        for (int from = 0; jar.owned.size() > from; from += CHECKPOINT_CLASSES) {
+            List<DexBackedClassDef> chunk =
+                    jar.owned.subList(
+                            from, Math.min(from + CHECKPOINT_CLASSES, jar.owned.size()));
+            try {
+                forEach(
+                        chunk,
+                        classDef -> {
+                            String name = getEntryName(classDef);
+                            if (jarClasses.containsKey(name)) return;
+                            byte[] bytes = transformClass(classDef, classTable);
+                            if (bytes != null) jarClasses.put(name, bytes);
+                        });
+            } catch (CancellationException e) {
+                checkpoint(cache, entry, jarClasses);
+                throw e;
+            }
+            if (System.nanoTime() - lastCheckpoint >= checkpointInterval * 1000000) {
+                checkpoint(cache, entry, jarClasses);
+                lastCheckpoint = System.nanoTime();
+            }
+        }
+        metrics.endPhase(PHASE_TRANSFORM, phase, jar.owned.size());
+        ArrayList<DexBackedClassDef> inaccessible = new ArrayList<>(inaccessibleTypes.size());
+        for (String type : inaccessibleTypes) {
+            inaccessible.add(classTable.get(type));
+        }
+        phase = metrics.startPhase(PHASE_INACCESSIBLE, inaccessible.size());
+        forEach(
+                inaccessible,
+                classDef -> {
+                    byte[] bytes = transformInaccessibleClass(classDef);
+                    if (bytes != null) jarInaccessibleClasses.put(getEntryName(classDef), bytes);
+                });
+        metrics.endPhase(PHASE_INACCESSIBLE, phase, inaccessible.size());
+        entry.hasHiddenApiRestrictions = hasHiddenApiRestrictions;
+        entry.classes.putAll(jarClasses);
+        entry.inaccessibleClasses.putAll(jarInaccessibleClasses);
+        return entry;
+    }
+
+    /** Saves the classes of {@code entry}'s jar transformed so far as its partial entry. */
+    private void checkpoint(
+            ExtractionCache cache, ExtractionCache.Entry entry, Map<String, byte[]> jarClasses)
+            throws IOException {
+        ExtractionCache.Entry partial = new ExtractionCache.Entry(entry.key);
+        partial.ownedTypes.addAll(entry.ownedTypes);
+        partial.referencedTypes.addAll(entry.referencedTypes);
+        partial.inaccessibleTypes.addAll(entry.inaccessibleTypes);
+        partial.externalTypes.putAll(entry.externalTypes);
+        partial.hasHiddenApiRestrictions = hasHiddenApiRestrictions;
+        partial.classes.putAll(jarClasses);
+        cache.writePartial(partial);
+        System.out.println("Checkpointed " + partial.classes.size() + " classes");
+    }
+
+    /** Records the member classes of {@code jar} that are defined by other jars, or nowhere. */
+    private void collectExternalMemberClasses(
+            JarInput jar,
+            ClassTable classTable,
+            JarInput[] owners,
+            Map<String, String> externalTypes) {
+        for (DexBackedClassDef classDef : jar.owned) {
+            for (String memberType : getClassAnnotations(classDef).memberClasses) {
+                JarInput owner = getOwner(classTable, owners, memberType);
+                if (owner == jar) continue;
+                externalTypes.put(memberType, owner != null ? owner.key : "");
+            }
+        }
+    }
+
+    private static boolean isUpToDate(
+            Map<String, String> externalTypes, ClassTable classTable, JarInput[] owners) {
+        for (Map.Entry<String, String> e : externalTypes.entrySet()) {
+            JarInput owner = getOwner(classTable, owners, e.getKey());
+            if (!e.getValue().equals(owner != null ? owner.key : "")) return false;
+        }
+        return true;
+    }
+
+    private static JarInput getOwner(ClassTable classTable, JarInput[] owners, String type) {
+        int id = classTable.getId(type);
+        return id != -1 ? owners[id] : null;
+    }
+
+    /** The options that change the generated classes, as part of the cache key. */
+    private String getCacheOptions() {
+        return "api="
+                + dexOpcodes.api
+                + ",test="
+                + MAKE_TEST_JAR_FOR_JVM
+                + ",stub="
+                + MAKE_STUB_METHOD
+                + ",hiddenApi="
+                + TRANSFORM_HIDDEN_API_RESTRICTION
+                + (trustDeclaredSynchronized ? ",trustSynchronized" : "");
+    }
+
+    private ClassTable loadClassTable(List<String> jarPaths) throws IOException {
+        ClassTable classTable = new ClassTable();
+        loadJars(jarPaths, classTable);
+        return classTable;
+    }
+
+    /**
+     * Loads every jar, adds its classes to {@code classTable} and links it. A class defined by
+     * more than one jar is owned by the first of them, so the ids of the classes a jar owns form
+     * a contiguous range.
+     */
+    private List<JarInput> loadJars(List<String> jarPaths, ClassTable classTable)
+            throws IOException {
+        long[] phase = metrics.startPhase(PHASE_LOAD);
+        ArrayList<JarInput> jars = new ArrayList<>(jarPaths.size());
+        for (String jarPath : jarPaths) {
+            jars.add(loadJar(jarPath, classTable));
+        }
+        classTable.link();
+        metrics.endPhase(PHASE_LOAD, phase, classTable.size());
+        return jars;
+    }
+
+    private JarInput loadJar(String jarPath, ClassTable classTable) throws IOException {
+        checkCancelled();
+        System.out.println("Extract: " + jarPath);
+        long start = System.nanoTime();
+        JarInput jar = new JarInput(jarPath, loadDexFiles(jarPath));
+        jar.firstId = classTable.size();
+        for (DexBackedDexFile dex : jar.dexFiles) {
+            for (DexBackedClassDef classDef : dex.getClasses()) {
+                if ((classDef.getAccessFlags() & ACC_SYNTHETIC) != 0) {
+                    // To save memory
+                    continue;
+                }
+                if (classTable.add(classDef) != -1) jar.owned.add(classDef);
+            }
+        }
+        jar.endId = classTable.size();
+        metrics.jarLoaded(
+                jarPath,
+                new File(jarPath).length(),
+                jar.dexFiles.size(),
+                jar.endId - jar.firstId,
+                System.nanoTime() - start);
+        return jar;
+    }
+
+    private List<DexBackedDexFile> loadDexFiles(String jarPath) throws IOException {
+        File file = new File(jarPath);
+        return mapDexFiles
+                ? DexLoader.load(file, dexOpcodes)
+                : DexLoader.loadWithDexFileFactory(file, dexOpcodes);
+    }
+
+    private static class JarInput {
+        final String path;
+        List<DexBackedDexFile> dexFiles;
+        final ArrayList<DexBackedClassDef> owned = new ArrayList<>();
+        int firstId;
+        int endId;
+        String key;
+
+        JarInput(String path, List<DexBackedDexFile> dexFiles) {
+            this.path = path;
+            this.dexFiles = dexFiles;
+        }
+
+        /** Drops the references to the dex files, keeping only the id range. */
+        void release() {
+            dexFiles = null;
+            owned.clear();
+            owned.trimToSize();
+        }
+
+        List<String> getOwnedTypes() {
+            ArrayList<String> types = new ArrayList<>(owned.size());
+            for (DexBackedClassDef classDef : owned) {
+                types.add(classDef.getType());
+            }
+            return types;
+        }
+    }
+
+    private static String getEntryName(DexBackedClassDef classDef) {
+        return getEntryName(classDef.getType());
+    }
+
+    private static String getEntryName(String type) {
+        return TypeUtils.toCfName(type) + ".class";
+    }
+
+    /** Sorts the class definitions in the order their entries appear in the output jar. */
+    private static List<DexBackedClassDef> sortByEntryName(
+            Collection<DexBackedClassDef> classDefs) {
+        ArrayList<String> names = new ArrayList<>(classDefs.size());
+        HashMap<String, DexBackedClassDef> byName = new HashMap<>();
+        for (DexBackedClassDef classDef : classDefs) {
+            String name = getEntryName(classDef);
+            names.add(name);
+            byName.put(name, classDef);
+        }
+        Collections.sort(names);
+        ArrayList<DexBackedClassDef> result = new ArrayList<>(names.size());
+        for (String name : names) {
+            result.add(byName.get(name));
+        }
+        return result;
+    }
+
+    /**
+     * Starts the worker pool that {@link #forEach} and {@link #streamToSink} share until {@link
+     * #stopWorkers}, so that an extraction does not start new threads, each with a deflater of
+     * its own, for every chunk it hands out. Returns {@code null} if there is nothing to stop,
+     * because a pool is running already or the extraction runs on a single thread.
+     */
+    private ExecutorService startWorkers() {
+        if (workers != null || parallelism == 1) return null;
+        workers = newWorkerPool();
+        return workers;
+    }
+
+    /**
+     * Creates a pool of {@link #parallelism} threads that end their deflaters once the pool is
+     * shut down.
+     */
+    private ExecutorService newWorkerPool() {
+        ThreadFactory threads = Executors.defaultThreadFactory();
+        return Executors.newFixedThreadPool(
+                parallelism,
+                task ->
+                        threads.newThread(
+                                () -> {
+                                    try {
+                                        task.run();
+                                    } finally {
+                                        JarWriter.releaseDeflater();
+                                    }
+                                }));
+    }
+
+    private void stopWorkers(ExecutorService pool) {
+        if (pool == null) return;
+        workers = null;
+        pool.shutdownNow();
+    }
+
+    /**
+     * Runs {@code action} for every item on the worker pool and counts the progress of the
+     * current phase. Once the extraction is {@link #cancel cancelled}, the remaining items are
+     * skipped and a {@link CancellationException} is thrown.
+     */
+    private <T> void forEach(Collection<T> items, Consumer<? super T> action) throws IOException {
+        if (parallelism == 1 || items.size() < 2) {
+            for (T item : items) {
+                if (cancelled) break;
+                action.accept(item);
+                metrics.advance(1);
+            }
+            checkCancelled();
+            return;
+        }
+        ExecutorService executor =
+                workers != null ? workers : newWorkerPool();
+        List<Future<?>> futures = new ArrayList<>(items.size());
+        try {
+            for (T item : items) {
+                futures.add(
+                        executor.submit(
+                                () -> {
+                                    if (!cancelled) action.accept(item);
+                                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+                metrics.advance(1);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            if (cause instanceof Error) throw (Error) cause;
+            throw new IOException(cause);
+        } finally {
+            // Items that have not started yet must not run into the next call
+            for (Future<?> future : futures) future.cancel(false);
+            if (executor != workers) executor.shutdownNow();
+        }
+        checkCancelled();
+    }
+
+    /**
+     * Produces the content of {@code items} on the worker pool and writes the results to {@code
+     * sink} in list order. A separate writer thread drains a queue of at most {@link
+     * #streamWindow} pending entries, which also throttles the producers when the writer falls
+     * behind. With {@link #parallelDeflate} the workers also prepare the entries, e.g. compress
+     * them, leaving the writer thread nothing to do but copy bytes.
+     */
+    private <T> void streamToSink(
+            OutputSink sink,
+            List<T> items,
+            Function<? super T, String> names,
+            Function<? super T, byte[]> contents)
+            throws IOException {
+        BlockingQueue<PendingEntry> queue = new ArrayBlockingQueue<>(streamWindow);
+        WriterThread writer = new WriterThread(sink, queue);
+        LongAdder prepareNanos = new LongAdder();
+        writer.start();
+        ExecutorService executor =
+                workers != null
+                        ? workers
+                        : parallelism == 1 ? null : newWorkerPool();
+        try {
+            for (T item : items) {
+                FutureTask<JarWriter.Entry> task =
+                        new FutureTask<>(
+                                () -> {
+                                    byte[] bytes = contents.apply(item);
+                                    if (bytes == null) return null;
+                                    fingerprint(bytes);
+                                    String name = names.apply(item);
+                                    if (!parallelDeflate) return new JarWriter.Entry(name, bytes);
+                                    long start = System.nanoTime();
+                                    JarWriter.Entry entry = sink.prepare(name, bytes);
+                                    prepareNanos.add(System.nanoTime() - start);
+                                    return entry;
+                                });
+                if (executor == null) {
+                    task.run();
+                } else {
+                    executor.execute(task);
+                }
+                queue.put(new PendingEntry(task));
+                metrics.advance(1);
+                if (writer.failure != null || cancelled) break;
+            }
+            queue.put(PendingEntry.END);
+            writer.join();
+            metrics.addOverlappedPhase(
+                    PHASE_WRITE, prepareNanos.sum() + writer.writeNanos, writer.written);
+        } catch (InterruptedException e) {
+            writer.interrupt();
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException();
+        } finally {
+            if (executor != null && executor != workers) executor.shutdownNow();
+        }
+
+        Throwable failure = writer.failure;
+        if (failure == null) {
+            checkCancelled();
+            return;
+        }
+        if (failure instanceof ExecutionException) failure = failure.getCause();
+        if (failure instanceof IOException) throw (IOException) failure;
+        if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+        if (failure instanceof Error) throw (Error) failure;
+        throw new IOException(failure);
+    }
+
+    private static class PendingEntry {
+        static final PendingEntry END = new PendingEntry(null);
+
+        final Future<JarWriter.Entry> entry;
+
+        PendingEntry(Future<JarWriter.Entry> entry) {
+            this.entry = entry;
+        }
+    }
+
+    private static class WriterThread extends Thread {
+        private final OutputSink sink;
+        private final BlockingQueue<PendingEntry> queue;
+
+        volatile Throwable failure;
+        // Read once the thread is joined
+        long writeNanos;
+        long written;
+
+        WriterThread(OutputSink sink, BlockingQueue<PendingEntry> queue) {
+            super("jar-writer");
+            this.sink = sink;
+            this.queue = queue;
+        }
+
+        @Override
+        public void run() {
+            try {
+                PendingEntry pending;
+                while ((pending = queue.take()) != PendingEntry.END) {
+                    // Keep draining after a failure so the producer never blocks on a full queue
+                    if (failure != null) {
+                        pending.entry.cancel(false);
+                        continue;
+                    }
+                    try {
+                        JarWriter.Entry entry = pending.entry.get();
+                        if (entry == null) continue;
+                        long start = System.nanoTime();
+                        sink.write(entry);
+                        writeNanos += System.nanoTime() - start;
+                        written++;
+                    } catch (ExecutionException | IOException | RuntimeException e) {
+                        failure = e;
+                    }
+                }
+            } catch (InterruptedException e) {
+                failure = e;
+            } finally {
+                // Entries that were not prepared are compressed here
+                JarWriter.releaseDeflater();
+            }
+        }
+    }
+
+    byte[] transformClass(DexBackedClassDef classDef, ClassTable classTable) {
+        int accessFlags = classDef.getAccessFlags();
+        if ((accessFlags & ACC_PUBLIC) == 0) return null;
+
+        AnnotationSummary annotations = getClassAnnotations(classDef);
+        InnerClassRecord innerClass = annotations.innerClass;
+        if (innerClass != null && isInaccessible(innerClass.accessFlags)) {
+            return null;
+        }
+        accessFlags = getAndFixDexAccessFlags(classDef, annotations);
+
+        String name = typeNames.toCfName(classDef.getType());
+        String superclass = classDef.getSuperclass();
+        if (superclass != null) {
+            superclass = typeNames.toCfName(superclass);
+        } else if (MAKE_TEST_JAR_FOR_JVM) return null;
+
+        if (MAKE_TEST_JAR_FOR_JVM) {
+            String type = classDef.getType();
+            if (TypeUtils.TYPE_STRING.equals(type)
+                    || TypeUtils.TYPE_THROWABLE.equals(type)
+                    || TypeUtils.TYPE_ANNOTATION.equals(type)) {
+                return null;
+            }
+        }
+
+        // The inner class entries are the only part that depends on other classes, so they are
+        // collected up front and the class file is then written in a single pass
+        List<InnerClassNode> innerClasses = collectInnerClasses(name, annotations, classTable);
+
+        ClassWriter classWriter = new ClassWriter(0);
+        classWriter.visit(
+                (accessFlags & ACC_RECORD) != 0 ? V17 : V1_8,
+                accessFlags,
+                name,
+                annotations.signature,
+                superclass,
+                typeNames.toCfName(classDef.getInterfaces()));
+
+        transformClassAnnotations(classWriter, classDef, annotations);
+
+        for (InnerClassNode innerClassNode : innerClasses) {
+            innerClassNode.accept(classWriter);
+        }
+
+        for (DexBackedField field : classDef.getFields()) {
+            transformField(classWriter, field);
+        }
+
+        for (DexBackedMethod method : classDef.getMethods()) {
+            transformMethod(classWriter, method, annotations);
+        }
+
+        if (MAKE_STUB_METHOD && !MAKE_TEST_JAR_FOR_JVM) {
+            MethodVisitor methodVisitor =
+                    classWriter.visitMethod(ACC_STATIC, "<clinit>", "()V", null, null);
+            methodVisitor.visitCode();
+            methodVisitor.visitTypeInsn(NEW, "java/lang/RuntimeException");
+            methodVisitor.visitInsn(DUP);
+            methodVisitor.visitLdcInsn("Stub!");
+            methodVisitor.visitMethodInsn(
+                    INVOKESPECIAL,
+                    "java/lang/RuntimeException",
+                    "<init>",
+                    "(Ljava/lang/String;)V",
+                    false);
+            methodVisitor.visitInsn(ATHROW);
+            methodVisitor.visitMaxs(3, 0);
+            methodVisitor.visitEnd();
+        }
+
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+
+    /**
+     * Returns the decoded annotations of {@code classDef}. They are kept for the whole extraction,
+     * since the annotations of a member class are also needed by its outer class.
+     */
+    private AnnotationSummary getClassAnnotations(DexBackedClassDef classDef) {
+        return classAnnotations.computeIfAbsent(
+                classDef.getType(),
+                type -> AnnotationSummary.decode(classDef.getAnnotations(), typeNames));
+    }
+
+    byte[] transformInaccessibleClass(DexBackedClassDef classDef) {
+        AnnotationSummary annotations = getClassAnnotations(classDef);
+        InnerClassRecord innerClass = annotations.innerClass;
+        if (innerClass != null && isInaccessible(innerClass.accessFlags)) {
+            return null;
+        }
+
+        int accessFlags = getAndFixDexAccessFlags(classDef, annotations);
+        String name = typeNames.toCfName(classDef.getType());
+        ClassWriter classWriter = new ClassWriter(0);
+        classWriter.visit(
+                (accessFlags & ACC_RECORD) != 0 ? V17 : V1_8,
+                accessFlags,
+                name,
+                annotations.signature,
+                typeNames.toCfName(classDef.getSuperclass()),
+                typeNames.toCfName(classDef.getInterfaces()));
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+
+    private List<InnerClassNode> collectInnerClasses(
+            String name, AnnotationSummary annotations, ClassTable classTable) {
+        ArrayList<InnerClassNode> innerClasses = new ArrayList<>();
+        InnerClassRecord inner = annotations.innerClass;
+        if (inner != null && !isInaccessible(inner.accessFlags)) {
+            innerClasses.add(
+                    new InnerClassNode(
+                            name, TypeUtils.getOuterName(name), inner.name, inner.accessFlags));
+        }
+
+        for (String memberType : annotations.memberClasses) {
+            String memberCfName = typeNames.toCfName(memberType);
+            int memberId = classTable.getId(memberType);
+            if (memberId == -1) {
+                System.err.println("Class not found: " + memberCfName);
+                continue;
+            }
+            DexBackedClassDef memberClassDef = classTable.get(memberId);
+            // Member classes of other jars are released in the two-phase mode, which records
+            // their InnerClass annotations in the class table instead
+            inner =
+                    memberClassDef != null
+                            ? getClassAnnotations(memberClassDef).innerClass
+                            : classTable.getInnerClass(memberId);
+            if (inner == null) continue;
+            if (isInaccessible(inner.accessFlags)) continue;
+            innerClasses.add(new InnerClassNode(memberCfName, name, inner.name, inner.accessFlags));
+        }
+        return innerClasses;
+    }
+
+    private void transformClassAnnotations(
+            ClassVisitor classVisitor, DexBackedClassDef classDef, AnnotationSummary annotations) {
+        String sourceFile = classDef.getSourceFile();
+        if (sourceFile != null) classVisitor.visitSource(sourceFile, null);
+
+        MethodReference enclosingMethod = annotations.enclosingMethod;
+        if (enclosingMethod != null) {
+            classVisitor.visitOuterClass(
+                    typeNames.toCfName(enclosingMethod.getDefiningClass()),
+                    enclosingMethod.getName(),
+                    TypeUtils.getMethodDescriptor(enclosingMethod));
+        }
+
+        if (annotations.isRecord) {
+            System.err.println("Record: " + classDef.getType());
+            // TODO: 实现 java 17 record 转换
+        }
+
+        transformAnnotations(annotations.annotations, classVisitor::visitAnnotation);
+
+        if (annotations.permittedSubclasses != null) {
+            for (String type : annotations.permittedSubclasses) {
+                classVisitor.visitPermittedSubclass(typeNames.toCfName(type));
+            }
+        }
+    }
+
+    private void transformField(ClassVisitor classVisitor, DexBackedField field) {
+        int accessFlags = field.getAccessFlags();
+        if (isInaccessible(accessFlags)) return;
+
+        Object initialValue = null;
+        if ((accessFlags & ACC_FINAL) != 0
+                && !field.getDefiningClass().startsWith("Lcom/android/internal/R$")) {
+            initialValue = toAsmValue(field.getInitialValue());
+        }
+
+        AnnotationSummary annotations =
+                AnnotationSummary.decode(field.getAnnotations(), typeNames);
+        accessFlags = fixDeprecated(accessFlags, annotations);
+
+        FieldVisitor fieldVisitor =
+                classVisitor.visitField(
+                        accessFlags,
+                        field.getName(),
+                        TypeUtils.wrapType(typeNames.getFieldType(field)),
+                        annotations.signature,
+                        initialValue);
+        transformFieldAnnotation(fieldVisitor, field, annotations);
+        fieldVisitor.visitEnd();
+    }
+
+    private void transformFieldAnnotation(
+            FieldVisitor fieldVisitor, DexBackedField field, AnnotationSummary annotations) {
+        transformAnnotations(
+                annotations.annotations,
+                (type, visible) -> fieldVisitor.visitAnnotation(TypeUtils.wrapType(type), visible));
+        if (field.getInitialValue() != null) return;
+        if (!TRANSFORM_HIDDEN_API_RESTRICTION) return;
+        Set<? extends HiddenApiRestriction> hiddenApiRestrictions =
+                field.getHiddenApiRestrictions();
+        if (!hiddenApiRestrictions.isEmpty()
+                && !hiddenApiRestrictions.contains(HiddenApiRestriction.WHITELIST)) {
+            transformHiddenApiRestrictions(
+                    fieldVisitor.visitAnnotation(TYPE_HIDDEN_API_RESTRICTION, false),
+                    hiddenApiRestrictions);
+        }
+    }
+
+    private void transformHiddenApiRestrictions(
+            AnnotationVisitor annotationVisitor,
+            Set<? extends HiddenApiRestriction> hiddenApiRestrictions) {
+        AnnotationVisitor childVisitor =
+                annotationVisitor.visitArray(FIELD_HIDDEN_API_RESTRICTION_VALUE);
+        for (HiddenApiRestriction hiddenApiRestriction : hiddenApiRestrictions) {
+            childVisitor.visit(null, hiddenApiRestriction.toString());
+        }
+        childVisitor.visitEnd();
+        annotationVisitor.visitEnd();
+        hasHiddenApiRestrictions = true;
+    }
+
+    private void transformMethod(
+            ClassVisitor classVisitor, DexBackedMethod method, AnnotationSummary classAnnotations) {
+        int accessFlags = method.getAccessFlags();
+        if (isInaccessible(accessFlags) || (accessFlags & ACC_BRIDGE) != 0) return;
+        String name = method.getName();
+        if (isObjectMethod(method, name)) return;
+        if ("<clinit>".equals(name)) return;
+
+        AnnotationSummary annotations =
+                AnnotationSummary.decode(method.getAnnotations(), typeNames);
+        accessFlags = fixDeprecated(accessFlags, annotations);
+
+        MethodImplementation implementation = method.getImplementation();
+        if (implementation != null
+                && (method.getAccessFlags() & 0x20000 /* declared-synchronized */) != 0) {
+            if (trustDeclaredSynchronized || monitorScanner.hasMonitorEnter(implementation)) {
+                accessFlags |= ACC_SYNCHRONIZED;
+            }
+        }
+
+        MethodVisitor methodVisitor =
+                classVisitor.visitMethod(
+                        accessFlags,
+                        name,
+                        typeNames.getMethodDescriptor(method),
+                        annotations.signature,
+                        annotations.exceptions);
+        List<MethodParameterRecord> parameters = null;
+        if (implementation != null) {
+            parameters = getParameters(method, annotations.parameterNames);
+            for (MethodParameterRecord param : parameters) {
+                if (param.name == null) break;
+                methodVisitor.visitParameter(param.name, 0);
+            }
+        }
+        transformMethodAnnotation(methodVisitor, method, annotations, classAnnotations);
+        if (parameters != null) {
+            transformMethodParameterAnnotation(methodVisitor, parameters, true);
+            transformMethodParameterAnnotation(methodVisitor, parameters, false);
+            transformMethodImplementation(methodVisitor, method, name, parameters);
+        }
+        methodVisitor.visitEnd();
+    }
+
+    private void transformMethodAnnotation(
+            MethodVisitor methodVisitor,
+            DexBackedMethod method,
+            AnnotationSummary annotations,
+            AnnotationSummary classAnnotations) {
+        if ((method.classDef.getAccessFlags() & ACC_ANNOTATION) != 0) {
+            EncodedValue defaultValue = classAnnotations.annotationDefaults.get(method.getName());
+            if (defaultValue != null) {
+                AnnotationVisitor annotationVisitor = methodVisitor.visitAnnotationDefault();
+                transformEncodedValue(annotationVisitor, defaultValue, null);
+                annotationVisitor.visitEnd();
+            }
+        }
+        transformAnnotations(
+                annotations.annotations,
+                (type, visible) ->
+                        methodVisitor.visitAnnotation(TypeUtils.wrapType(type), visible));
+        if (!TRANSFORM_HIDDEN_API_RESTRICTION) return;
+        Set<? extends HiddenApiRestriction> hiddenApiRestrictions =
+                method.getHiddenApiRestrictions();
+        if (!hiddenApiRestrictions.isEmpty()
+                && !hiddenApiRestrictions.contains(HiddenApiRestriction.WHITELIST)) {
+            transformHiddenApiRestrictions(
+                    methodVisitor.visitAnnotation(TYPE_HIDDEN_API_RESTRICTION, false),
+                    hiddenApiRestrictions);
+        }
+    }
+
+    private void transformMethodImplementation(
+            MethodVisitor methodVisitor,
+            DexBackedMethod method,
+            String name,
+            List<MethodParameterRecord> parameters) {
+        methodVisitor.visitCode();
+        Label labelStart = new Label();
+        methodVisitor.visitLabel(labelStart);
+        int maxStack = 0;
+        String returnType = typeNames.getReturnType(method);
+        String definingClass = typeNames.getDefiningClass(method);
+        if ("<init>".equals(name)
+                && "V".equals(returnType)
+                && !TypeUtils.TYPE_OBJECT.equals(definingClass)) {
+            methodVisitor.visitVarInsn(ALOAD, 0);
+            methodVisitor.visitMethodInsn(
+                    INVOKESPECIAL,
+                    typeNames.toCfName(method.classDef.getSuperclass()),
+                    "<init>",
+                    "()V",
+                    false);
+            methodVisitor.visitInsn(RETURN);
+            maxStack = 1;
+        } else
+            switch (returnType.charAt(0)) {
+                case 'Z':
+                case 'B':
+                case 'S':
+                case 'C':
+                case 'I':
+                    {
+                        methodVisitor.visitInsn(ICONST_0);
+                        methodVisitor.visitInsn(IRETURN);
+                        maxStack = 1;
+                        break;
+                    }
+                case 'F':
+                    {
+                        methodVisitor.visitInsn(FCONST_0);
+                        methodVisitor.visitInsn(FRETURN);
+                        maxStack = 1;
+                        break;
+                    }
+                case 'J':
+                    {
+                        methodVisitor.visitInsn(LCONST_0);
+                        methodVisitor.visitInsn(LRETURN);
+                        maxStack = 2;
+                        break;
+                    }
+                case 'D':
+                    {
+                        methodVisitor.visitInsn(DCONST_0);
+                        methodVisitor.visitInsn(DRETURN);
+                        maxStack = 2;
+                        break;
+                    }
+                case 'V':
+                    {
+                        methodVisitor.visitInsn(RETURN);
+                        break;
+                    }
+                default:
+                    {
+                        methodVisitor.visitInsn(ACONST_NULL);
+                        methodVisitor.visitInsn(ARETURN);
+                        maxStack = 1;
+                        break;
+                    }
+            }
+        Label labelEnd = new Label();
+        methodVisitor.visitLabel(labelEnd);
+        boolean isStatic = (method.getAccessFlags() & ACC_STATIC) != 0;
+        if (!isStatic) {
+            methodVisitor.visitLocalVariable(
+                    "this", definingClass, null, labelStart, labelEnd, 0);
+        }
+        int paramIndex = 0;
+        for (MethodParameterRecord param : parameters) {
+            String paramName = param.name;
+            String paramSignature = param.signature;
+
+            if (paramName != null || paramSignature != null) {
+                if (paramName == null) {
+                    paramName = "p" + paramIndex;
+                }
+                methodVisitor.visitLocalVariable(
+                        paramName,
+                        TypeUtils.wrapType(param.type),
+                        paramSignature,
+                        labelStart,
+                        labelEnd,
+                        param.id);
+            }
+            ++paramIndex;
+        }
+        int parameterCount = parameters.size();
+        int maxLocals =
+                parameterCount != 0 ? parameters.get(parameterCount - 1).id : isStatic ? 0 : 1;
+        methodVisitor.visitMaxs(maxStack, maxLocals);
+    }
+
+    /** Visits the annotations of the parameters that get a local variable entry. */
+    private void transformMethodParameterAnnotation(
+            MethodVisitor methodVisitor, List<MethodParameterRecord> parameters, boolean visible) {
+        for (int paramIndex = 0; parameters.size() > paramIndex; paramIndex++) {
+            MethodParameterRecord param = parameters.get(paramIndex);
+            if (param.name == null && param.signature == null) continue;
+            int parameter = paramIndex;
+            transformAnnotations(
+                    param.annotations,
+                    visible,
+                    (type, isVisible) ->
+                            methodVisitor.visitParameterAnnotation(
+                                    parameter, TypeUtils.wrapType(type), isVisible));
+        }
+    }
+
+    /**
+     * Visits the visible annotations before the invisible ones. ClassWriter adds constants in the
+     * order they are visited, so this keeps the constant pool independent of how the dex file
+     * happens to order an annotation set.
+     */
+    private void transformAnnotations(
+            Collection<? extends Annotation> annotations,
+            BiFunction<String, Boolean, AnnotationVisitor> visitor) {
+        transformAnnotations(annotations, true, visitor);
+        transformAnnotations(annotations, false, visitor);
+    }
+
+    private void transformAnnotations(
+            Collection<? extends Annotation> annotations,
+            boolean visible,
+            BiFunction<String, Boolean, AnnotationVisitor> visitor) {
+        for (Annotation annotation : annotations) {
+            if (isVisible(annotation) != visible) continue;
+            String type = annotation.getType();
+            if (TypeUtils.TYPE_DALVIK_SIGNATURE.equals(type)) continue;
+            transformAnnotationElement(visitor.apply(type, visible), annotation);
+        }
+    }
+
+    private void transformAnnotationElement(
+            AnnotationVisitor annotationVisitor, BasicAnnotation annotation) {
+        for (AnnotationElement element : annotation.getElements()) {
+            EncodedValue encodedValue = element.getValue();
+            transformEncodedValue(annotationVisitor, encodedValue, element.getName());
+        }
+        annotationVisitor.visitEnd();
+    }
+
+    private void transformEncodedValue(
+            AnnotationVisitor annotationVisitor, EncodedValue encodedValue, String name) {
+        switch (encodedValue.getValueType()) {
+            case ValueType.ANNOTATION:
+                {
+                    AnnotationEncodedValue v = (AnnotationEncodedValue) encodedValue;
+                    transformAnnotationElement(
+                            annotationVisitor.visitAnnotation(
+                                    name, TypeUtils.wrapType(v.getType())),
+                            v);
+                    break;
+                }
+            case ValueType.ARRAY:
+                {
+                    ArrayEncodedValue v = (ArrayEncodedValue) encodedValue;
+                    AnnotationVisitor childVisitor = annotationVisitor.visitArray(name);
+                    for (EncodedValue childValue : v.getValue()) {
+                        transformEncodedValue(childVisitor, childValue, null);
+                    }
+                    childVisitor.visitEnd();
+                    break;
+                }
+            case ValueType.BOOLEAN:
+                {
+                    BooleanEncodedValue v = (BooleanEncodedValue) encodedValue;
+                    annotationVisitor.visit(name, v.getValue());
+                    break;
+                }
+            case ValueType.BYTE:
+                {
+                    ByteEncodedValue v = (ByteEncodedValue) encodedValue;
+                    annotationVisitor.visit(name, v.getValue());
+                    break;
+                }
+            case ValueType.CHAR:
+                {
+                    CharEncodedValue v = (CharEncodedValue) encodedValue;
+                    annotationVisitor.visit(name, v.getValue());
+                    break;
+                }
+            case ValueType.DOUBLE:
+                {
+                    DoubleEncodedValue v = (DoubleEncodedValue) encodedValue;
+                    annotationVisitor.visit(name, v.getValue());
+                    break;
+                }
+            case ValueType.ENUM:
+                {
+                    FieldReference value = ((EnumEncodedValue) encodedValue).getValue();
+                    annotationVisitor.visitEnum(name, value.getDefiningClass(), value.getName());
+                    break;
+                }
+            case ValueType.FLOAT:
+                {
+                    FloatEncodedValue v = (FloatEncodedValue) encodedValue;
+                    annotationVisitor.visit(name, v.getValue());
+                    break;
+                }
+            case ValueType.INT:
+                {
+                    IntEncodedValue v = (IntEncodedValue) encodedValue;
+                    annotationVisitor.visit(name, v.getValue());
+                    break;
+                }
+            case ValueType.LONG:
+                {
+                    LongEncodedValue v = (LongEncodedValue) encodedValue;
+                    annotationVisitor.visit(name, v.getValue());
+                    break;
+                }
+            case ValueType.SHORT:
+                {
+                    ShortEncodedValue v = (ShortEncodedValue) encodedValue;
+                    annotationVisitor.visit(name, v.getValue());
+                    break;
+                }
+            case ValueType.STRING:
+                {
+                    StringEncodedValue v = (StringEncodedValue) encodedValue;
+                    annotationVisitor.visit(name, v.getValue());
+                    break;
+                }
+            case ValueType.TYPE:
+                {
+                    TypeEncodedValue v = (TypeEncodedValue) encodedValue;
+                    annotationVisitor.visit(name, Type.getType(v.getValue()));
+                    break;
+                }
+            default:
+                {
+                    throw new IllegalArgumentException(encodedValue.getClass().getName());
+                }
+        }
+    }
+
+    static byte[] makeHiddenApiRestrictionAnnotation() {
+        ClassWriter classWriter = new ClassWriter(0);
+        int acc = ACC_ANNOTATION | ACC_ABSTRACT | ACC_INTERFACE;
+        if (MAKE_TEST_JAR_FOR_JVM) {
+            acc |= ACC_PUBLIC;
+        }
+        String name = TypeUtils.toCfName(TYPE_HIDDEN_API_RESTRICTION);
+        classWriter.visit(
+                V1_8,
+                acc,
+                name,
+                null,
+                "java/lang/Object",
+                new String[] {"java/lang/annotation/Annotation"});
+        MethodVisitor methodVisitor =
+                classWriter.visitMethod(
+                        ACC_PUBLIC | ACC_ABSTRACT,
+                        FIELD_HIDDEN_API_RESTRICTION_VALUE,
+                        "()[Ljava/lang/String;",
+                        null,
+                        null);
+        methodVisitor.visitEnd();
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+
+    public void writeTo(OutputStream out) throws IOException {
+        writeTo(new JarWriter(out, compressionLevel));
+    }
+
+    /**
+     * Like {@link #writeTo(OutputStream)}, but writes to {@code sink} and closes it. The {@link
+     * #setCompressionLevel compression level} does not apply, the sink has its own.
+     */
+    public void writeTo(OutputSink sink) throws IOException {
+        fingerprints.clear();
+        ExecutorService pool = startWorkers();
+        try {
+            writeToSink(sink);
+            finish(sink);
+        } finally {
+            stopWorkers(pool);
+            sink.close();
+        }
+    }
+
+    /**
+     * Writes the extracted classes to {@code file} like {@link #writeTo}, reusing the jar an
+     * earlier run left there. Every entry is compared to the entry of the same name in that jar
+     * by CRC-32 and size. Unchanged entries are copied from it without being recompressed, and
+     * only new or changed entries are compressed. If nothing changed, the jar is not written at
+     * all.
+     *
+     * <p>The new jar is written to a temporary file next to {@code file} and renamed, so a failed
+     * update leaves the old jar intact. Whether unchanged entries were compressed at a different
+     * {@link #setCompressionLevel level} is not checked.
+     *
+     * @return {@code false} if the jar was already up to date
+     */
+    public boolean updateTo(File file) throws IOException {
+        ExecutorService pool = startWorkers();
+        try {
+            return updateWithWorkers(file);
+        } finally {
+            stopWorkers(pool);
+        }
+    }
+
+    private boolean updateWithWorkers(File file) throws IOException {
+        fingerprints.clear();
+        ArrayList<Map.Entry<String, byte[]>> items =
+                new ArrayList<>(classes.size() + inaccessibleClasses.size());
+        items.addAll(classes.entrySet());
+        items.addAll(inaccessibleClasses.entrySet());
+        File temp = new File(file.getPath() + ".tmp");
+        try {
+            //noinspection IOStreamConstructor
+            try (FileInputStream oldIn = file.isFile() ? new FileInputStream(file) : null) {
+                FileChannel oldChannel = oldIn != null ? oldIn.getChannel() : null;
+                HashMap<String, ZipCentralDirectory.Entry> oldEntries = new HashMap<>();
+                if (oldChannel != null) {
+                    try {
+                        for (ZipCentralDirectory.Entry entry :
+                                ZipCentralDirectory.read(oldChannel)) {
+                            oldEntries.put(entry.name, entry);
+                        }
+                    } catch (ZipException e) {
+                        System.out.println("Rewriting " + file + ": " + e.getMessage());
+                        oldEntries.clear();
+                    }
+                }
+
+                System.out.println("Comparing " + items.size() + " classes with " + file);
+                long[] phase = metrics.startPhase(PHASE_WRITE);
+                ZipCentralDirectory.Entry[] reusable = new ZipCentralDirectory.Entry[items.size()];
+                LongAdder changed = new LongAdder();
+                forEach(
+                        slice(0, items.size()),
+                        range -> {
+                            CRC32 crc = new CRC32();
+                            for (int i = range[0]; range[1] > i; i++) {
+                                Map.Entry<String, byte[]> item = items.get(i);
+                                byte[] bytes = item.getValue();
+                                fingerprint(bytes);
+                                ZipCentralDirectory.Entry old = oldEntries.get(item.getKey());
+                                if (old != null
+                                        && old.size == bytes.length
+                                        && (old.method == ZipEntry.STORED
+                                                || old.method == ZipEntry.DEFLATED)) {
+                                    crc.reset();
+                                    crc.update(bytes, 0, bytes.length);
+                                    if (old.crc == crc.getValue()) {
+                                        reusable[i] = old;
+                                        continue;
+                                    }
+                                }
+                                changed.increment();
+                            }
+                        });
+                int resourceCount = 0;
+                boolean resourcesChanged = false;
+                if (resourceApk != null) {
+                    try (FileInputStream in = new FileInputStream(resourceApk)) {
+                        for (ZipCentralDirectory.Entry entry : readResources(in.getChannel())) {
+                            ZipCentralDirectory.Entry old = oldEntries.get(entry.name);
+                            resourceCount++;
+                            resourcesChanged |=
+                                    old == null || old.size != entry.size || old.crc != entry.crc;
+                        }
+                    }
+                }
+                if (changed.sum() == 0
+                        && !resourcesChanged
+                        && oldEntries.size() == items.size() + resourceCount) {
+                    metrics.endPhase(PHASE_WRITE, phase, 0);
+                    System.out.println(file + " is up to date");
+                    saveFingerprints(oldEntries::get);
+                    report();
+                    return false;
+                }
+
+                System.out.println(
+                        "Writing "
+                                + changed.sum()
+                                + " changed classes, copying "
+                                + (items.size() - changed.sum()));
+                //noinspection IOStreamConstructor
+                try (JarWriter jar =
+                        new JarWriter(
+                                new BufferedOutputStream(new FileOutputStream(temp)),
+                                compressionLevel)) {
+                    // Changed entries are compressed on the worker pool, at most streamWindow at a
+                    // time
+                    JarWriter.Entry[] compressed = new JarWriter.Entry[streamWindow];
+                    for (int from = 0; items.size() > from; from += compressed.length) {
+                        int end = Math.min(from + compressed.length, items.size());
+                        int chunk = from;
+                        boolean anyChanged = false;
+                        for (int i = from; end > i && !anyChanged; i++) {
+                            anyChanged = reusable[i] == null;
+                        }
+                        if (anyChanged) {
+                            forEach(
+                                    slice(from, end),
+                                    range -> {
+                                        for (int i = range[0]; range[1] > i; i++) {
+                                            if (reusable[i] != null) continue;
+                                            Map.Entry<String, byte[]> item = items.get(i);
+                                            compressed[i - chunk] =
+                                                    jar.compress(item.getKey(), item.getValue());
+                                        }
+                                    });
+                        }
+                        for (int i = from; end > i; i++) {
+                            if (reusable[i] != null) {
+                                jar.copy(reusable[i], oldChannel);
+                            } else {
+                                jar.write(compressed[i - from]);
+                                compressed[i - from] = null;
+                            }
+                        }
+                    }
+                    metrics.endPhase(PHASE_WRITE, phase, changed.sum());
+                    writeResources(jar);
+                    finish(jar);
+                }
+            }
+        } catch (IOException | RuntimeException | Error e) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw e;
+        }
+        FileUtils.replace(file, temp);
+        return true;
+    }
+
+    void writeToSink(OutputSink sink) throws IOException {
+        System.out.println("Writing " + classes.size() + " classes");
+        long[] phase =
+                metrics.startPhase(PHASE_WRITE, classes.size() + inaccessibleClasses.size());
+        streamToSink(
+                sink, new ArrayList<>(classes.entrySet()), Map.Entry::getKey, Map.Entry::getValue);
+
+        System.out.println("Writing " + inaccessibleClasses.size() + " inaccessible classes");
+        streamToSink(
+                sink,
+                new ArrayList<>(inaccessibleClasses.entrySet()),
+                Map.Entry::getKey,
+                Map.Entry::getValue);
+        metrics.endPhase(PHASE_WRITE, phase, classes.size() + inaccessibleClasses.size());
+
+        writeResources(sink);
+    }
+
+    private void writeHiddenApiRestrictionAnnotation(OutputSink sink) throws IOException {
+        byte[] bytes = makeHiddenApiRestrictionAnnotation();
+        fingerprint(bytes);
+        sink.write(getEntryName(TYPE_HIDDEN_API_RESTRICTION), bytes);
+    }
+
+    private void fingerprint(byte[] classBytes) {
+        if (fingerprintFile == null && indexFile == null) return;
+        ApiFingerprint fingerprint = ApiFingerprint.of(classBytes);
+        fingerprints.put(fingerprint.name, fingerprint);
+    }
+
+    /**
+     * Closes {@code sink} to count the bytes written, saves the fingerprints and reports the
+     * metrics.
+     */
+    private void finish(OutputSink sink) throws IOException {
+        sink.close();
+        metrics.bytesOut = sink.getSize();
+        saveFingerprints(sink::getEntry);
+        report();
+    }
+
+    /**
+     * Saves the fingerprint file and the symbol index, if requested.
+     *
+     * @param entries returns the entries of the written jar by name
+     */
+    private void saveFingerprints(Function<String, ZipCentralDirectory.Entry> entries)
+            throws IOException {
+        if (fingerprintFile != null) {
+            try (Writer out = ApiFingerprint.createFile(fingerprintFile)) {
+                for (ApiFingerprint fingerprint : fingerprints.values()) fingerprint.write(out);
+            }
+        }
+        if (indexFile != null) SymbolIndex.write(fingerprints.values(), entries, indexFile);
+        fingerprints.clear();
+    }
+
+    private void report() throws IOException {
+        metrics.report();
+        if (reportFile == null) return;
+        //noinspection IOStreamConstructor
+        try (OutputStream out = new FileOutputStream(reportFile)) {
+            out.write(metrics.toJson().getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Copies the resources of {@link #resourceApk} into {@code sink}. A jar gets the entries
+     * compressed, exactly as they are stored in the APK.
+     */
+    private void writeResources(OutputSink sink) throws IOException {
+        if (!APPEND_RESOURCE_FILES && !APPEND_RESOURCE_BLOCKS) return;
+        if (resourceApk == null) return;
+        System.out.println("Writing resources");
+
+        long[] phase = metrics.startPhase(PHASE_RESOURCES);
+        int count = 0;
+        try (FileInputStream in = new FileInputStream(resourceApk)) {
+            FileChannel channel = in.getChannel();
+            for (ZipCentralDirectory.Entry entry : readResources(channel)) {
+                sink.copy(entry, channel);
+                count++;
+            }
+        }
+        metrics.endPhase(PHASE_RESOURCES, phase, count);
+    }
+
+    /** Returns the entries of the resource APK that {@link #writeResources} copies. */
+    private static List<ZipCentralDirectory.Entry> readResources(FileChannel channel)
+            throws IOException {
+        ArrayList<ZipCentralDirectory.Entry> resources = new ArrayList<>();
+        if (!APPEND_RESOURCE_FILES && !APPEND_RESOURCE_BLOCKS) return resources;
+        for (ZipCentralDirectory.Entry entry : ZipCentralDirectory.read(channel)) {
+            String name = entry.name;
+            if ((APPEND_RESOURCE_BLOCKS
+                            && ("resources.arsc".equals(name)
+                                    || "AndroidManifest.xml".equals(name)))
+                    || (APPEND_RESOURCE_FILES
+                            && (name.startsWith("assets/") || name.startsWith("res/")))) {
+                resources.add(entry);
+            }
+        }
+        return resources;
+    }
+}
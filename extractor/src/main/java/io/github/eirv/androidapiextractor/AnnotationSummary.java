@@ -0,0 +1,133 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import com.android.tools.smali.dexlib2.iface.Annotation;
+import com.android.tools.smali.dexlib2.iface.AnnotationElement;
+import com.android.tools.smali.dexlib2.iface.reference.MethodReference;
+import com.android.tools.smali.dexlib2.iface.value.AnnotationEncodedValue;
+import com.android.tools.smali.dexlib2.iface.value.ArrayEncodedValue;
+import com.android.tools.smali.dexlib2.iface.value.EncodedValue;
+import com.android.tools.smali.dexlib2.iface.value.MethodEncodedValue;
+import com.android.tools.smali.dexlib2.iface.value.StringEncodedValue;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The annotations of a class, field or method, decoded in a single pass. Dex annotation sets are
+ * decoded again every time they are iterated, so everything the extractor looks up in them is
+ * read once here.
+ */
+public class AnnotationSummary {
+    public boolean isDeprecated;
+    public boolean isRecord;
+    public String signature;
+    public String[] exceptions;
+    public InnerClassRecord innerClass;
+    public MethodReference enclosingMethod;
+    public List<String> memberClasses = Collections.emptyList();
+    public List<String> permittedSubclasses;
+    public Map<String, EncodedValue> annotationDefaults = Collections.emptyMap();
+
+    /** The names of a {@code dalvik.annotation.MethodParameters} annotation, {@code null}s kept. */
+    public String[] parameterNames;
+
+    /** The annotations that are copied to the class file, i.e. all but the dalvik ones. */
+    public final List<Annotation> annotations = new ArrayList<>();
+
+    /**
+     * @param typeNames interns the internal names of the exceptions
+     */
+    public static AnnotationSummary decode(
+            Set<? extends Annotation> annotations, TypeNameCache typeNames) {
+        AnnotationSummary summary = new AnnotationSummary();
+        for (Annotation annotation : annotations) {
+            switch (annotation.getType()) {
+                case TypeUtils.TYPE_DALVIK_SIGNATURE:
+                    summary.signature = TypeUtils.getSignature(annotation);
+                    break;
+                case TypeUtils.TYPE_DALVIK_THROWS:
+                    summary.exceptions = typeNames.toCfName(TypeUtils.getTypes(annotation));
+                    break;
+                case TypeUtils.TYPE_DALVIK_INNER_CLASS:
+                    summary.innerClass = InnerClassRecord.findIn(annotation);
+                    break;
+                case TypeUtils.TYPE_DALVIK_MEMBER_CLASSES:
+                    summary.memberClasses = TypeUtils.getTypes(annotation);
+                    break;
+                case TypeUtils.TYPE_DALVIK_ENCLOSING_METHOD:
+                    summary.enclosingMethod =
+                            ((MethodEncodedValue) TypeUtils.assertAndGetSingleValue(annotation))
+                                    .getValue();
+                    break;
+                case TypeUtils.TYPE_DALVIK_PERMITTED_SUBCLASSES:
+                    summary.permittedSubclasses = TypeUtils.getTypes(annotation);
+                    break;
+                case TypeUtils.TYPE_DALVIK_ANNOTATION_DEFAULT:
+                    {
+                        AnnotationEncodedValue v =
+                                (AnnotationEncodedValue)
+                                        TypeUtils.assertAndGetSingleValue(annotation);
+                        HashMap<String, EncodedValue> defaults = new HashMap<>();
+                        for (AnnotationElement element : v.getElements()) {
+                            defaults.put(element.getName(), element.getValue());
+                        }
+                        summary.annotationDefaults = defaults;
+                        break;
+                    }
+                case TypeUtils.TYPE_DALVIK_RECORD:
+                    summary.isRecord = true;
+                    break;
+                case TypeUtils.TYPE_DALVIK_METHOD_PARAMETERS:
+                    summary.parameterNames = getParameterNames(annotation);
+                    break;
+                case TypeUtils.TYPE_DALVIK_ENCLOSING_CLASS:
+                    break;
+                case TypeUtils.TYPE_DEPRECATED:
+                    summary.isDeprecated = true;
+                    summary.annotations.add(annotation);
+                    break;
+                default:
+                    summary.annotations.add(annotation);
+            }
+        }
+        return summary;
+    }
+
+    private static String[] getParameterNames(Annotation annotation) {
+        for (AnnotationElement element : annotation.getElements()) {
+            if (!"names".equals(element.getName())) continue;
+            List<? extends EncodedValue> values =
+                    ((ArrayEncodedValue) element.getValue()).getValue();
+            String[] names = new String[values.size()];
+            for (int i = 0; names.length > i; i++) {
+                EncodedValue value = values.get(i);
+                if (value instanceof StringEncodedValue) {
+                    names[i] = ((StringEncodedValue) value).getValue();
+                }
+            }
+            return names;
+        }
+        return null;
+    }
+}
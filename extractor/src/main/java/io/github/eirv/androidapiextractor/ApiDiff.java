@@ -0,0 +1,304 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Compares two extractions by the {@link ApiFingerprint fingerprints} of their classes. Both
+ * sides are read in class name order and merged in a single pass, so only one class of each side
+ * is in memory at a time. Classes with the same hash are skipped without looking at their
+ * members.
+ *
+ * <p>A side is either a fingerprint file, as written with {@link
+ * AndroidApiExtractor#setFingerprintFile}, or a jar, whose classes are then fingerprinted one at
+ * a time. Reading a fingerprint file is much faster.
+ */
+public class ApiDiff {
+    private static final int ZIP_MAGIC = 0x04034b50;
+    private static final int CLASS_MODIFIERS =
+            ACC_PUBLIC | ACC_PROTECTED | ACC_PRIVATE | ACC_STATIC | ACC_FINAL | ACC_ABSTRACT
+                    | ACC_INTERFACE;
+    private static final int FIELD_MODIFIERS = CLASS_MODIFIERS | ACC_VOLATILE | ACC_TRANSIENT;
+    private static final int METHOD_MODIFIERS = CLASS_MODIFIERS | ACC_SYNCHRONIZED | ACC_NATIVE;
+
+    private final PrintStream out;
+
+    public int addedClasses;
+    public int removedClasses;
+    public int changedClasses;
+    public int addedMembers;
+    public int removedMembers;
+    public int changedMembers;
+
+    /**
+     * @param out receives one line per difference
+     */
+    public ApiDiff(PrintStream out) {
+        this.out = out;
+    }
+
+    /** Writes the fingerprints of the classes of {@code jar} to {@code file}. */
+    public static void writeFingerprints(File jar, File file) throws IOException {
+        try (JarSource source = new JarSource(jar);
+                Writer out = ApiFingerprint.createFile(file)) {
+            ApiFingerprint fingerprint;
+            while ((fingerprint = source.next()) != null) fingerprint.write(out);
+        }
+    }
+
+    /**
+     * Reports what changed from {@code oldFile} to {@code newFile}, each a jar or a fingerprint
+     * file, and adds to the counts.
+     *
+     * @return whether there were any differences
+     */
+    public boolean diff(File oldFile, File newFile) throws IOException {
+        int before = addedClasses + removedClasses + changedClasses;
+        try (Source oldSource = open(oldFile);
+                Source newSource = open(newFile)) {
+            ApiFingerprint a = oldSource.next();
+            ApiFingerprint b = newSource.next();
+            while (a != null || b != null) {
+                int order = a == null ? 1 : b == null ? -1 : a.name.compareTo(b.name);
+                if (order < 0) {
+                    out.println("- class " + a.name);
+                    removedClasses++;
+                    a = oldSource.next();
+                } else if (order > 0) {
+                    out.println("+ class " + b.name);
+                    addedClasses++;
+                    b = newSource.next();
+                } else {
+                    if (a.hash != b.hash) diffClass(a, b);
+                    a = oldSource.next();
+                    b = newSource.next();
+                }
+            }
+        }
+        return addedClasses + removedClasses + changedClasses != before;
+    }
+
+    public String getSummary() {
+        return "Classes: "
+                + addedClasses
+                + " added, "
+                + removedClasses
+                + " removed, "
+                + changedClasses
+                + " changed. Members: "
+                + addedMembers
+                + " added, "
+                + removedMembers
+                + " removed, "
+                + changedMembers
+                + " changed.";
+    }
+
+    private void diffClass(ApiFingerprint a, ApiFingerprint b) {
+        changedClasses++;
+        out.println("~ class " + a.name);
+        if (a.access != b.access) {
+            out.println(
+                    "    access: "
+                            + describeAccess(a.access, CLASS_MODIFIERS)
+                            + " -> "
+                            + describeAccess(b.access, CLASS_MODIFIERS));
+        }
+        if (!a.restriction.equals(b.restriction)) {
+            out.println("    restriction: " + a.restriction + " -> " + b.restriction);
+        }
+        if (a.headerHash != b.headerHash) out.println("    supertypes or signature changed");
+
+        // Both member lists are sorted, so they are merged like the classes
+        List<ApiFingerprint.Member> oldMembers = a.members;
+        List<ApiFingerprint.Member> newMembers = b.members;
+        int i = 0;
+        int j = 0;
+        while (oldMembers.size() > i || newMembers.size() > j) {
+            ApiFingerprint.Member oldMember = oldMembers.size() > i ? oldMembers.get(i) : null;
+            ApiFingerprint.Member newMember = newMembers.size() > j ? newMembers.get(j) : null;
+            int order =
+                    oldMember == null
+                            ? 1
+                            : newMember == null ? -1 : oldMember.compareTo(newMember);
+            if (order < 0) {
+                out.println("    - " + describe(oldMember));
+                removedMembers++;
+                i++;
+            } else if (order > 0) {
+                out.println("    + " + describe(newMember));
+                addedMembers++;
+                j++;
+            } else {
+                diffMember(oldMember, newMember);
+                i++;
+                j++;
+            }
+        }
+    }
+
+    private void diffMember(ApiFingerprint.Member a, ApiFingerprint.Member b) {
+        if (a.access == b.access && a.restriction.equals(b.restriction) && a.hash == b.hash) {
+            return;
+        }
+        changedMembers++;
+        int modifiers = a.kind == ApiFingerprint.Member.FIELD ? FIELD_MODIFIERS : METHOD_MODIFIERS;
+        StringBuilder sb = new StringBuilder("    ~ ").append(describe(a)).append(':');
+        String separator = " ";
+        if (a.access != b.access) {
+            sb.append(separator)
+                    .append("access ")
+                    .append(describeAccess(a.access, modifiers))
+                    .append(" -> ")
+                    .append(describeAccess(b.access, modifiers));
+            separator = "; ";
+        }
+        if (!a.restriction.equals(b.restriction)) {
+            sb.append(separator)
+                    .append("restriction ")
+                    .append(a.restriction)
+                    .append(" -> ")
+                    .append(b.restriction);
+            separator = "; ";
+        }
+        if (a.hash != b.hash) {
+            sb.append(separator)
+                    .append(
+                            a.kind == ApiFingerprint.Member.FIELD
+                                    ? "signature or value changed"
+                                    : "signature or exceptions changed");
+        }
+        out.println(sb);
+    }
+
+    private static String describe(ApiFingerprint.Member member) {
+        return (member.kind == ApiFingerprint.Member.FIELD ? "field " : "method ") + member.key;
+    }
+
+    private static String describeAccess(int access, int modifiers) {
+        String hex = "0x" + Integer.toHexString(access);
+        String words = Modifier.toString(access & modifiers);
+        return words.isEmpty() ? hex : words + " (" + hex + ")";
+    }
+
+    private static Source open(File file) throws IOException {
+        int magic;
+        try (FileInputStream in = new FileInputStream(file)) {
+            ByteBuffer buffer = ByteBuffer.allocate(4);
+            in.getChannel().read(buffer, 0);
+            magic = buffer.position() == 4 ? Integer.reverseBytes(buffer.getInt(0)) : 0;
+        }
+        return magic == ZIP_MAGIC ? new JarSource(file) : new FileSource(file);
+    }
+
+    /** The fingerprints of one side in name order. */
+    private interface Source extends Closeable {
+        /** Returns the next fingerprint, or {@code null} at the end. */
+        ApiFingerprint next() throws IOException;
+    }
+
+    private static class FileSource implements Source {
+        private final BufferedReader reader;
+        private String line;
+
+        FileSource(File file) throws IOException {
+            //noinspection IOStreamConstructor
+            reader =
+                    new BufferedReader(
+                            new InputStreamReader(
+                                    new FileInputStream(file), StandardCharsets.UTF_8));
+            if (!ApiFingerprint.HEADER.equals(reader.readLine())) {
+                reader.close();
+                throw new IOException("Neither a jar nor a fingerprint file: " + file);
+            }
+            line = reader.readLine();
+        }
+
+        @Override
+        public ApiFingerprint next() throws IOException {
+            if (line == null) return null;
+            String classLine = line;
+            ArrayList<String> memberLines = new ArrayList<>();
+            while ((line = reader.readLine()) != null && !line.startsWith("C ")) {
+                memberLines.add(line);
+            }
+            return ApiFingerprint.parse(classLine, memberLines);
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    private static class JarSource implements Source {
+        private final FileInputStream in;
+        private final FileChannel channel;
+        private final Iterator<ZipCentralDirectory.Entry> entries;
+
+        JarSource(File jar) throws IOException {
+            in = new FileInputStream(jar);
+            channel = in.getChannel();
+            ArrayList<ZipCentralDirectory.Entry> classes = new ArrayList<>();
+            try {
+                for (ZipCentralDirectory.Entry entry : ZipCentralDirectory.read(channel)) {
+                    if (entry.name.endsWith(".class")) classes.add(entry);
+                }
+            } catch (IOException e) {
+                in.close();
+                throw e;
+            }
+            // "a/B$C.class" sorts before "a/B.class", but "a/B$C" after "a/B"
+            Collections.sort(classes, (a, b) -> getClassName(a).compareTo(getClassName(b)));
+            entries = classes.iterator();
+        }
+
+        @Override
+        public ApiFingerprint next() throws IOException {
+            if (!entries.hasNext()) return null;
+            return ApiFingerprint.of(DexLoader.readEntry(channel, entries.next()));
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private static String getClassName(ZipCentralDirectory.Entry entry) {
+            return entry.name.substring(0, entry.name.length() - ".class".length());
+        }
+    }
+}
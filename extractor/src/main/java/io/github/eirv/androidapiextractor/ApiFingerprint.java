@@ -0,0 +1,359 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The structural fingerprint of a class file: its access flags and hidden API restrictions, a
+ * hash of everything else in its header, and the same for each of its fields and methods. Code,
+ * debug info and other annotations are left out. Two classes with the same {@link #hash} have the
+ * same API.
+ *
+ * <p>Fingerprint files are text. After the {@link #HEADER} line, classes are sorted by name, and
+ * every class line is followed by one line per member:
+ *
+ * <pre>
+ * C &lt;name&gt; &lt;access&gt; &lt;restriction&gt; &lt;header hash&gt; &lt;hash&gt;
+ * F &lt;name&gt;:&lt;descriptor&gt; &lt;access&gt; &lt;restriction&gt; &lt;hash&gt;
+ * M &lt;name&gt;&lt;descriptor&gt; &lt;access&gt; &lt;restriction&gt; &lt;hash&gt;
+ * </pre>
+ *
+ * The access flags and hashes are hexadecimal, and the restriction lists the values of the
+ * {@code HiddenApiRestriction} annotation separated by commas, or is {@code -}. Members are
+ * sorted, fields first.
+ */
+public class ApiFingerprint {
+    public static final String HEADER = "# AndroidApiExtractor fingerprints 1";
+
+    private static final String NO_RESTRICTION = "-";
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** The internal name of the class. */
+    public final String name;
+
+    public final int access;
+    public final String restriction;
+
+    /** Covers the superclass, interfaces and generic signature. */
+    public final long headerHash;
+
+    /** Covers the whole fingerprint, members included. */
+    public final long hash;
+
+    public final List<Member> members;
+
+    ApiFingerprint(
+            String name,
+            int access,
+            String restriction,
+            long headerHash,
+            long hash,
+            List<Member> members) {
+        this.name = name;
+        this.access = access;
+        this.restriction = restriction;
+        this.headerHash = headerHash;
+        this.hash = hash;
+        this.members = members;
+    }
+
+    public static ApiFingerprint of(byte[] classBytes) {
+        Builder builder = new Builder();
+        new ClassReader(classBytes)
+                .accept(
+                        builder,
+                        ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return builder.build();
+    }
+
+    /**
+     * Creates a fingerprint file and writes its header. The fingerprints must be {@link #write
+     * written} to it in name order.
+     */
+    public static Writer createFile(File file) throws IOException {
+        //noinspection IOStreamConstructor
+        Writer out =
+                new BufferedWriter(
+                        new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8));
+        try {
+            out.write(HEADER);
+            out.write('\n');
+        } catch (IOException e) {
+            out.close();
+            throw e;
+        }
+        return out;
+    }
+
+    /** Parses a class line and the member lines after it. */
+    static ApiFingerprint parse(String classLine, List<String> memberLines) throws IOException {
+        String[] fields = split(classLine, 6);
+        if (!"C".equals(fields[0])) throw new IOException("Not a class line: " + classLine);
+        ArrayList<Member> members = new ArrayList<>(memberLines.size());
+        for (String line : memberLines) {
+            String[] memberFields = split(line, 5);
+            members.add(
+                    new Member(
+                            memberFields[0].charAt(0),
+                            memberFields[1],
+                            parseHex(memberFields[2]),
+                            memberFields[3],
+                            parseHex(memberFields[4])));
+        }
+        return new ApiFingerprint(
+                fields[1],
+                parseHex(fields[2]),
+                fields[3],
+                Long.parseUnsignedLong(fields[4], 16),
+                Long.parseUnsignedLong(fields[5], 16),
+                members);
+    }
+
+    public void write(Writer out) throws IOException {
+        out.write(
+                "C "
+                        + name
+                        + ' '
+                        + Integer.toHexString(access)
+                        + ' '
+                        + restriction
+                        + ' '
+                        + Long.toHexString(headerHash)
+                        + ' '
+                        + Long.toHexString(hash)
+                        + '\n');
+        for (Member member : members) {
+            out.write(member.toLine());
+            out.write('\n');
+        }
+    }
+
+    private static String[] split(String line, int count) throws IOException {
+        String[] fields = line.split(" ");
+        if (fields.length != count || fields[0].length() != 1) {
+            throw new IOException("Malformed fingerprint: " + line);
+        }
+        return fields;
+    }
+
+    private static int parseHex(String value) throws IOException {
+        try {
+            return (int) Long.parseLong(value, 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("Malformed fingerprint: " + value);
+        }
+    }
+
+    private static long hash(long hash, String value) {
+        if (value == null) value = "\0";
+        for (int i = 0; value.length() > i; i++) {
+            hash = (hash ^ value.charAt(i)) * FNV_PRIME;
+        }
+        // Separates consecutive values
+        return (hash ^ 0xFFFF) * FNV_PRIME;
+    }
+
+    public static class Member implements Comparable<Member> {
+        public static final char FIELD = 'F';
+        public static final char METHOD = 'M';
+
+        public final char kind;
+
+        /** {@code name:descriptor} for fields, and the name and descriptor for methods. */
+        public final String key;
+
+        public final int access;
+        public final String restriction;
+
+        /** Covers the generic signature, the exceptions and the constant value. */
+        public final int hash;
+
+        Member(char kind, String key, int access, String restriction, int hash) {
+            this.kind = kind;
+            this.key = key;
+            this.access = access;
+            this.restriction = restriction;
+            this.hash = hash;
+        }
+
+        String toLine() {
+            return kind
+                    + " "
+                    + key
+                    + ' '
+                    + Integer.toHexString(access)
+                    + ' '
+                    + restriction
+                    + ' '
+                    + Integer.toHexString(hash);
+        }
+
+        @Override
+        public int compareTo(Member other) {
+            return kind != other.kind ? kind - other.kind : key.compareTo(other.key);
+        }
+    }
+
+    private static class Builder extends ClassVisitor {
+        private final ArrayList<Member> members = new ArrayList<>();
+        private String name;
+        private int access;
+        private long headerHash;
+        private final ArrayList<String> restriction = new ArrayList<>(1);
+
+        Builder() {
+            super(ASM9);
+        }
+
+        @Override
+        public void visit(
+                int version,
+                int access,
+                String name,
+                String signature,
+                String superName,
+                String[] interfaces) {
+            this.name = name;
+            this.access = access;
+            long hash = hash(hash(FNV_OFFSET, superName), signature);
+            if (interfaces != null) {
+                for (String type : interfaces) hash = hash(hash, type);
+            }
+            headerHash = hash;
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+            return visitRestriction(descriptor, restriction);
+        }
+
+        @Override
+        public FieldVisitor visitField(
+                int access, String name, String descriptor, String signature, Object value) {
+            long hash =
+                    hash(
+                            hash(FNV_OFFSET, signature),
+                            value == null ? null : value.getClass().getName() + value);
+            ArrayList<String> restriction = new ArrayList<>(1);
+            String key = name + ':' + descriptor;
+            return new FieldVisitor(ASM9) {
+                @Override
+                public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                    return visitRestriction(descriptor, restriction);
+                }
+
+                @Override
+                public void visitEnd() {
+                    members.add(
+                            new Member(
+                                    Member.FIELD,
+                                    key,
+                                    access,
+                                    joinRestriction(restriction),
+                                    (int) hash));
+                }
+            };
+        }
+
+        @Override
+        public MethodVisitor visitMethod(
+                int access,
+                String name,
+                String descriptor,
+                String signature,
+                String[] exceptions) {
+            long hash = hash(FNV_OFFSET, signature);
+            if (exceptions != null) {
+                for (String type : exceptions) hash = hash(hash, type);
+            }
+            long methodHash = hash;
+            ArrayList<String> restriction = new ArrayList<>(1);
+            String key = name + descriptor;
+            return new MethodVisitor(ASM9) {
+                @Override
+                public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                    return visitRestriction(descriptor, restriction);
+                }
+
+                @Override
+                public void visitEnd() {
+                    members.add(
+                            new Member(
+                                    Member.METHOD,
+                                    key,
+                                    access,
+                                    joinRestriction(restriction),
+                                    (int) methodHash));
+                }
+            };
+        }
+
+        ApiFingerprint build() {
+            Collections.sort(members);
+            String classRestriction = joinRestriction(restriction);
+            long hash = hash(hash(headerHash, Integer.toHexString(access)), classRestriction);
+            for (Member member : members) hash = hash(hash, member.toLine());
+            return new ApiFingerprint(name, access, classRestriction, headerHash, hash, members);
+        }
+
+        private static AnnotationVisitor visitRestriction(
+                String descriptor, List<String> restriction) {
+            if (!AndroidApiExtractor.TYPE_HIDDEN_API_RESTRICTION.equals(descriptor)) return null;
+            return new AnnotationVisitor(ASM9) {
+                @Override
+                public AnnotationVisitor visitArray(String name) {
+                    return this;
+                }
+
+                @Override
+                public void visit(String name, Object value) {
+                    restriction.add(String.valueOf(value));
+                }
+            };
+        }
+
+        private static String joinRestriction(List<String> restriction) {
+            if (restriction.isEmpty()) return NO_RESTRICTION;
+            StringBuilder sb = new StringBuilder();
+            for (String value : restriction) {
+                if (sb.length() != 0) sb.append(',');
+                sb.append(value);
+            }
+            return sb.toString();
+        }
+    }
+}
@@ -0,0 +1,282 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import static org.objectweb.asm.Opcodes.*;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.tree.AnnotationNode;
+import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.tree.FieldNode;
+import org.objectweb.asm.tree.InnerClassNode;
+import org.objectweb.asm.tree.MethodNode;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Merges jars that {@link AndroidApiExtractor} wrote for different API levels into one jar with
+ * every class and member of any of them, annotated with the first and last level it appears at.
+ *
+ * <p>The jars are never loaded as a whole. Only their central directories are read and sorted by
+ * entry name, and then merged k ways in a single pass, so that only the versions of one class are
+ * in memory at a time. The result is written as the merge goes. Other entries, e.g. resources,
+ * are copied as is from the newest jar that has them.
+ *
+ * <p>A class is annotated with {@code @ApiAvailability} when it is missing from some of the
+ * merged levels, and a member when its levels differ from those of its class. Where versions
+ * differ, the newest one wins: the access flags, signatures and code of a class or member come
+ * from the newest level that has it.
+ */
+public class ApiMerger {
+    public static final String TYPE_API_AVAILABILITY = "Landroid/annotation/ApiAvailability;";
+
+    private static final String FIELD_FIRST = "first";
+    private static final String FIELD_LAST = "last";
+
+    private final ArrayList<Input> inputs = new ArrayList<>();
+    private int compressionLevel = 9;
+
+    /** Sets the compression level of the merged jar, see {@link JarWriter#JarWriter}. */
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /** Adds the jar extracted for {@code api}. Every level can be added once. */
+    public void addJar(int api, File jar) {
+        for (Input input : inputs) {
+            if (input.api == api) throw new IllegalArgumentException("Duplicate API level " + api);
+        }
+        inputs.add(new Input(api, jar));
+    }
+
+    public void mergeTo(OutputStream out) throws IOException {
+        if (inputs.isEmpty()) throw new IllegalStateException("No jars to merge");
+        int first = Integer.MAX_VALUE;
+        int last = Integer.MIN_VALUE;
+        for (Input input : inputs) {
+            first = Math.min(first, input.api);
+            last = Math.max(last, input.api);
+        }
+        System.out.println("Merging " + inputs.size() + " jars of API " + first + " to " + last);
+        long start = System.nanoTime();
+        String annotationEntry = TypeUtils.toCfName(TYPE_API_AVAILABILITY) + ".class";
+        int classCount = 0;
+        ArrayList<FileInputStream> streams = new ArrayList<>();
+        try (JarWriter jar = new JarWriter(out, compressionLevel)) {
+            PriorityQueue<Cursor> queue = new PriorityQueue<>();
+            for (Input input : inputs) {
+                FileInputStream in = new FileInputStream(input.file);
+                streams.add(in);
+                Cursor cursor = new Cursor(input.api, in.getChannel());
+                if (cursor.next()) queue.add(cursor);
+            }
+
+            // Takes the next name off every jar that has it, newest first
+            ArrayList<Cursor> versions = new ArrayList<>();
+            while (!queue.isEmpty()) {
+                versions.clear();
+                Cursor newest = queue.poll();
+                versions.add(newest);
+                String name = newest.entry.name;
+                while (!queue.isEmpty() && queue.peek().entry.name.equals(name)) {
+                    versions.add(queue.poll());
+                }
+                if (name.equals(annotationEntry)) {
+                    // Written once at the end
+                } else if (name.endsWith(".class")) {
+                    jar.write(name, mergeClass(versions, first, last));
+                    classCount++;
+                } else {
+                    jar.copy(newest.entry, newest.channel);
+                }
+                for (Cursor cursor : versions) {
+                    if (cursor.next()) queue.add(cursor);
+                }
+            }
+            jar.write(annotationEntry, makeApiAvailabilityAnnotation());
+        } finally {
+            for (FileInputStream in : streams) in.close();
+        }
+        System.out.println(
+                "Merged "
+                        + classCount
+                        + " classes in "
+                        + (System.nanoTime() - start) / 1000000
+                        + " ms");
+    }
+
+    /**
+     * Merges the versions of a class, ordered from the newest level to the oldest, into the
+     * newest one.
+     */
+    private static byte[] mergeClass(List<Cursor> versions, int first, int last)
+            throws IOException {
+        ClassNode merged = readClass(versions.get(0));
+        int classFirst = versions.get(versions.size() - 1).api;
+        int classLast = versions.get(0).api;
+        HashMap<String, int[]> fieldLevels = new HashMap<>();
+        HashMap<String, int[]> methodLevels = new HashMap<>();
+        HashSet<String> innerClasses = new HashSet<>();
+        for (FieldNode field : merged.fields) {
+            fieldLevels.put(field.name + ':' + field.desc, new int[] {classLast, classLast});
+        }
+        for (MethodNode method : merged.methods) {
+            methodLevels.put(method.name + method.desc, new int[] {classLast, classLast});
+        }
+        for (InnerClassNode innerClass : merged.innerClasses) innerClasses.add(innerClass.name);
+
+        for (int i = 1; versions.size() > i; i++) {
+            int api = versions.get(i).api;
+            ClassNode older = readClass(versions.get(i));
+            for (FieldNode field : older.fields) {
+                int[] levels = fieldLevels.get(field.name + ':' + field.desc);
+                if (levels == null) {
+                    fieldLevels.put(field.name + ':' + field.desc, new int[] {api, api});
+                    merged.fields.add(field);
+                } else {
+                    levels[0] = api;
+                }
+            }
+            for (MethodNode method : older.methods) {
+                int[] levels = methodLevels.get(method.name + method.desc);
+                if (levels == null) {
+                    methodLevels.put(method.name + method.desc, new int[] {api, api});
+                    merged.methods.add(method);
+                } else {
+                    levels[0] = api;
+                }
+            }
+            // Member classes that were removed still need their InnerClasses entries
+            for (InnerClassNode innerClass : older.innerClasses) {
+                if (innerClasses.add(innerClass.name)) merged.innerClasses.add(innerClass);
+            }
+        }
+
+        if (classFirst != first || classLast != last) {
+            merged.invisibleAnnotations =
+                    stamp(merged.invisibleAnnotations, classFirst, classLast);
+        }
+        for (FieldNode field : merged.fields) {
+            int[] levels = fieldLevels.get(field.name + ':' + field.desc);
+            if (levels[0] != classFirst || levels[1] != classLast) {
+                field.invisibleAnnotations =
+                        stamp(field.invisibleAnnotations, levels[0], levels[1]);
+            }
+        }
+        for (MethodNode method : merged.methods) {
+            int[] levels = methodLevels.get(method.name + method.desc);
+            if (levels[0] != classFirst || levels[1] != classLast) {
+                method.invisibleAnnotations =
+                        stamp(method.invisibleAnnotations, levels[0], levels[1]);
+            }
+        }
+
+        ClassWriter classWriter = new ClassWriter(0);
+        merged.accept(classWriter);
+        return classWriter.toByteArray();
+    }
+
+    private static ClassNode readClass(Cursor cursor) throws IOException {
+        ClassNode classNode = new ClassNode();
+        new ClassReader(DexLoader.readEntry(cursor.channel, cursor.entry)).accept(classNode, 0);
+        return classNode;
+    }
+
+    private static List<AnnotationNode> stamp(
+            List<AnnotationNode> annotations, int first, int last) {
+        if (annotations == null) annotations = new ArrayList<>(1);
+        AnnotationNode annotation = new AnnotationNode(TYPE_API_AVAILABILITY);
+        annotation.values = Arrays.<Object>asList(FIELD_FIRST, first, FIELD_LAST, last);
+        annotations.add(annotation);
+        return annotations;
+    }
+
+    private static byte[] makeApiAvailabilityAnnotation() {
+        ClassWriter classWriter = new ClassWriter(0);
+        int acc = ACC_ANNOTATION | ACC_ABSTRACT | ACC_INTERFACE;
+        if (AndroidApiExtractor.MAKE_TEST_JAR_FOR_JVM) {
+            acc |= ACC_PUBLIC;
+        }
+        classWriter.visit(
+                V1_8,
+                acc,
+                TypeUtils.toCfName(TYPE_API_AVAILABILITY),
+                null,
+                "java/lang/Object",
+                new String[] {"java/lang/annotation/Annotation"});
+        for (String field : new String[] {FIELD_FIRST, FIELD_LAST}) {
+            MethodVisitor methodVisitor =
+                    classWriter.visitMethod(ACC_PUBLIC | ACC_ABSTRACT, field, "()I", null, null);
+            methodVisitor.visitEnd();
+        }
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+
+    private static class Input {
+        final int api;
+        final File file;
+
+        Input(int api, File file) {
+            this.api = api;
+            this.file = file;
+        }
+    }
+
+    /** The entries of one jar in name order. */
+    private static class Cursor implements Comparable<Cursor> {
+        final int api;
+        final FileChannel channel;
+        final Iterator<ZipCentralDirectory.Entry> entries;
+        ZipCentralDirectory.Entry entry;
+
+        Cursor(int api, FileChannel channel) throws IOException {
+            this.api = api;
+            this.channel = channel;
+            List<ZipCentralDirectory.Entry> list = ZipCentralDirectory.read(channel);
+            Collections.sort(list, (a, b) -> a.name.compareTo(b.name));
+            entries = list.iterator();
+        }
+
+        boolean next() {
+            if (!entries.hasNext()) return false;
+            entry = entries.next();
+            return true;
+        }
+
+        @Override
+        public int compareTo(Cursor other) {
+            int result = entry.name.compareTo(other.entry.name);
+            return result != 0 ? result : Integer.compare(other.api, api);
+        }
+    }
+}
@@ -0,0 +1,451 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Desktop entry point that extracts the boot jars pulled from one or more system images. All
+ * images of a batch are processed in the same JVM, so they share the JIT warm-up and, with {@code
+ * --cache}, the results for jars that several images have in common.
+ */
+public class BatchExtractor {
+    private static final String USAGE =
+            "Usage:\n"
+                    + "  extractor [options] --api <level> --output <jar> <input>...\n"
+                    + "  extractor [options] --batch <file>\n"
+                    + "  extractor --diff <old> <new>\n"
+                    + "\n"
+                    + "An input is a boot jar or a directory of them. Inputs are given in\n"
+                    + "BOOTCLASSPATH order, and a directory contributes its jars sorted by name.\n"
+                    + "Each line of a batch file describes one image:\n"
+                    + "  <api level> <output jar> <input>...\n"
+                    + "Blank lines and lines starting with # are ignored.\n"
+                    + "--diff lists the API changes between two extracted jars or their\n"
+                    + "fingerprint files.\n"
+                    + "\n"
+                    + "Options:\n"
+                    + "  --resources <apk>  APK whose resources are appended to every jar. By\n"
+                    + "                     default framework-res.apk is used when an input\n"
+                    + "                     directory contains one.\n"
+                    + "  --cache <dir>      Reuse the results of unchanged jars across images\n"
+                    + "                     and runs.\n"
+                    + "  --threads <n>      Number of worker threads.\n"
+                    + "  --level <n>        Compression level from 1 to 9, or 0 to store.\n"
+                    + "  --layout <layout>  jar (the default), packages for a jar grouped by\n"
+                    + "                     package with directory entries, or dir to write the\n"
+                    + "                     entries to a directory at the output path.\n"
+                    + "                     Other files in it are deleted.\n"
+                    + "  --heap-budget <mb> Extract one jar at a time when the inputs would not\n"
+                    + "                     fit into this much heap. Not used with --cache or\n"
+                    + "                     --update.\n"
+                    + "  --update           Rewrite only the entries of an existing output jar\n"
+                    + "                     that changed, and leave it alone if none did.\n"
+                    + "  --trust-synchronized\n"
+                    + "                     Mark every declared-synchronized method synchronized\n"
+                    + "                     without scanning its code for monitor-enter.\n"
+                    + "  --report           Write the timings of every image as JSON next to its\n"
+                    + "                     jar, e.g. android-34.jar.json.\n"
+                    + "  --merge <jar>      Also merge the jars of all images into one, annotated\n"
+                    + "                     with the API levels every class and member is\n"
+                    + "                     available at.\n"
+                    + "  --fingerprints     Write the API fingerprints of every image next to its\n"
+                    + "                     jar for --diff, e.g. android-34.jar.api.\n"
+                    + "  --index            Write a binary symbol index of every image next to\n"
+                    + "                     its jar, e.g. android-34.jar.idx.\n"
+                    + "  --classes <names>  Write only these classes, given as comma-separated\n"
+                    + "                     internal names, with the inaccessible classes they\n"
+                    + "                     refer to. Other options that write files are\n"
+                    + "                     ignored.\n";
+
+    private static final String FRAMEWORK_RES = "framework-res.apk";
+
+    private static final String LAYOUT_JAR = "jar";
+    private static final String LAYOUT_PACKAGES = "packages";
+    private static final String LAYOUT_DIR = "dir";
+
+    private File resourceApk;
+    private File cacheDir;
+    private int threads = Runtime.getRuntime().availableProcessors();
+    private int level = 9;
+    private long heapBudget;
+    private boolean trustSynchronized;
+    private boolean report;
+    private File merge;
+    private boolean fingerprints;
+    private boolean update;
+    private boolean index;
+    private List<String> classNames;
+    private String layout = LAYOUT_JAR;
+
+    public static void main(String[] args) {
+        try {
+            System.exit(new BatchExtractor().run(args));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            System.exit(2);
+        }
+    }
+
+    private int run(String[] args) {
+        int api = -1;
+        File output = null;
+        File batch = null;
+        ArrayList<String> inputs = new ArrayList<>();
+        for (int i = 0; args.length > i; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--api":
+                    api = parseInt(arg, value(args, ++i, arg));
+                    break;
+                case "--output":
+                    output = new File(value(args, ++i, arg));
+                    break;
+                case "--batch":
+                    batch = new File(value(args, ++i, arg));
+                    break;
+                case "--resources":
+                    resourceApk = new File(value(args, ++i, arg));
+                    break;
+                case "--cache":
+                    cacheDir = new File(value(args, ++i, arg));
+                    break;
+                case "--threads":
+                    threads = parseInt(arg, value(args, ++i, arg));
+                    break;
+                case "--level":
+                    level = parseInt(arg, value(args, ++i, arg));
+                    break;
+                case "--layout":
+                    layout = value(args, ++i, arg);
+                    if (!LAYOUT_JAR.equals(layout)
+                            && !LAYOUT_PACKAGES.equals(layout)
+                            && !LAYOUT_DIR.equals(layout)) {
+                        throw new IllegalArgumentException("Invalid --layout: " + layout);
+                    }
+                    break;
+                case "--heap-budget":
+                    heapBudget = parseInt(arg, value(args, ++i, arg)) * 1024L * 1024L;
+                    break;
+                case "--trust-synchronized":
+                    trustSynchronized = true;
+                    break;
+                case "--report":
+                    report = true;
+                    break;
+                case "--merge":
+                    merge = new File(value(args, ++i, arg));
+                    break;
+                case "--fingerprints":
+                    fingerprints = true;
+                    break;
+                case "--update":
+                    update = true;
+                    break;
+                case "--index":
+                    index = true;
+                    break;
+                case "--classes":
+                    classNames = Arrays.asList(value(args, ++i, arg).split(","));
+                    break;
+                case "--diff":
+                    return diff(new File(value(args, ++i, arg)), new File(value(args, ++i, arg)));
+                case "-h":
+                case "--help":
+                    System.out.print(USAGE);
+                    return 0;
+                default:
+                    if (arg.startsWith("--")) throw new IllegalArgumentException("Unknown " + arg);
+                    inputs.add(arg);
+            }
+        }
+
+        if (!LAYOUT_JAR.equals(layout) && (update || classNames != null)) {
+            throw new IllegalArgumentException("--update and --classes write plain jars");
+        }
+        if (LAYOUT_DIR.equals(layout) && merge != null) {
+            throw new IllegalArgumentException("--merge needs jars to merge");
+        }
+
+        List<Image> images = new ArrayList<>();
+        if (batch != null) {
+            if (api != -1 || output != null || !inputs.isEmpty()) {
+                throw new IllegalArgumentException("--batch cannot be combined with an image");
+            }
+            try {
+                images.addAll(readBatch(batch));
+            } catch (IOException e) {
+                System.err.println("Failed to read " + batch + ": " + e);
+                return 1;
+            }
+        } else {
+            if (api == -1 || output == null || inputs.isEmpty()) {
+                throw new IllegalArgumentException("Missing --api, --output or inputs");
+            }
+            images.add(new Image(api, output, inputs));
+        }
+
+        int failures = 0;
+        long start = System.nanoTime();
+        for (Image image : images) {
+            try {
+                extract(image);
+            } catch (IOException | RuntimeException e) {
+                failures++;
+                System.err.println("Failed to extract " + image.output + ":");
+                e.printStackTrace();
+            }
+        }
+        boolean mergeFailed = false;
+        if (merge != null && failures == 0) {
+            try {
+                merge(images);
+            } catch (IOException | RuntimeException e) {
+                mergeFailed = true;
+                System.err.println("Failed to merge " + merge + ":");
+                e.printStackTrace();
+            }
+        }
+        System.out.println(
+                "Extracted "
+                        + (images.size() - failures)
+                        + " of "
+                        + images.size()
+                        + " images in "
+                        + (System.nanoTime() - start) / 1000000
+                        + " ms");
+        return failures == 0 && !mergeFailed ? 0 : 1;
+    }
+
+    private void extract(Image image) throws IOException {
+        System.out.println("Image: " + image.output + " (API " + image.api + ")");
+        long start = System.nanoTime();
+        ArrayList<String> jars = new ArrayList<>();
+        File resources = resourceApk;
+        for (String input : image.inputs) {
+            File file = new File(input);
+            if (!file.isDirectory()) {
+                jars.add(input);
+                continue;
+            }
+            File[] files = file.listFiles();
+            if (files == null) throw new IOException("Failed to list " + file);
+            Arrays.sort(files);
+            for (File child : files) {
+                if (child.getName().endsWith(".jar")) {
+                    jars.add(child.getPath());
+                } else if (resources == null && FRAMEWORK_RES.equals(child.getName())) {
+                    resources = child;
+                }
+            }
+        }
+        // Loaded in reverse, like the app does. The extractor keeps the first definition it
+        // loads, so a class that several jars define comes from the last of them on
+        // BOOTCLASSPATH, not from the first like at runtime
+        Collections.reverse(jars);
+
+        AndroidApiExtractor extractor = new AndroidApiExtractor(image.api);
+        extractor.setParallelism(threads);
+        extractor.setCompressionLevel(level);
+        extractor.setResourceApk(resources);
+        extractor.setCacheDir(cacheDir);
+        extractor.setHeapBudget(heapBudget);
+        extractor.setTrustDeclaredSynchronized(trustSynchronized);
+        if (report) extractor.setReportFile(new File(image.output.getPath() + ".json"));
+        if (fingerprints) {
+            extractor.setFingerprintFile(new File(image.output.getPath() + ".api"));
+        }
+        if (index) extractor.setIndexFile(new File(image.output.getPath() + ".idx"));
+        File parent = image.output.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.isDirectory() && !parent.mkdirs()) {
+            throw new IOException("Failed to create " + parent);
+        }
+        if (classNames != null) {
+            writeClasses(extractor, jars, image.output);
+            System.out.println(
+                    "Wrote "
+                            + image.output
+                            + " in "
+                            + (System.nanoTime() - start) / 1000000
+                            + " ms");
+            return;
+        }
+        if (update) {
+            extractor.extract(jars);
+            extractor.updateTo(image.output);
+            System.out.println(
+                    "Updated "
+                            + image.output
+                            + " in "
+                            + (System.nanoTime() - start) / 1000000
+                            + " ms");
+            return;
+        }
+        try (OutputSink sink = openSink(image.output)) {
+            if (cacheDir != null) {
+                extractor.extract(jars);
+                extractor.writeTo(sink);
+            } else {
+                extractor.extractTo(jars, sink);
+            }
+        }
+        System.out.println(
+                "Wrote " + image.output + " in " + (System.nanoTime() - start) / 1000000 + " ms");
+    }
+
+    private OutputSink openSink(File output) throws IOException {
+        if (LAYOUT_DIR.equals(layout)) return new DirectorySink(output);
+        //noinspection IOStreamConstructor
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(output));
+        return LAYOUT_PACKAGES.equals(layout)
+                ? new PackageJarSink(out, level)
+                : new JarWriter(out, level);
+    }
+
+    /**
+     * Writes the classes of {@link #classNames} and their dependencies, in the order a full
+     * extraction would, together with the {@code HiddenApiRestriction} annotation if one of them
+     * uses it.
+     */
+    private void writeClasses(AndroidApiExtractor extractor, List<String> jars, File output)
+            throws IOException {
+        ClassProvider provider = extractor.openClassProvider(jars, classNames.size());
+        TreeMap<String, byte[]> entries = new TreeMap<>();
+        for (String name : classNames) {
+            byte[] bytes = provider.classBytes(name);
+            if (bytes == null) {
+                System.err.println("No such class: " + name);
+                continue;
+            }
+            entries.put(name + ".class", bytes);
+            for (String dependency : provider.getDependencies(name)) {
+                byte[] dependencyBytes = provider.classBytes(dependency);
+                if (dependencyBytes != null) entries.put(dependency + ".class", dependencyBytes);
+            }
+        }
+        String annotation = TypeUtils.toCfName(AndroidApiExtractor.TYPE_HIDDEN_API_RESTRICTION);
+        byte[] annotationBytes = provider.classBytes(annotation);
+        if (annotationBytes != null) entries.put(annotation + ".class", annotationBytes);
+        //noinspection IOStreamConstructor
+        try (JarWriter jar =
+                new JarWriter(new BufferedOutputStream(new FileOutputStream(output)), level)) {
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                jar.write(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    private static int diff(File oldFile, File newFile) {
+        ApiDiff diff = new ApiDiff(System.out);
+        long start = System.nanoTime();
+        try {
+            diff.diff(oldFile, newFile);
+        } catch (IOException | RuntimeException e) {
+            System.err.println("Failed to diff " + oldFile + " and " + newFile + ":");
+            e.printStackTrace();
+            return 1;
+        }
+        System.out.println(diff.getSummary());
+        System.out.println("Compared in " + (System.nanoTime() - start) / 1000000 + " ms");
+        return 0;
+    }
+
+    private void merge(List<Image> images) throws IOException {
+        ApiMerger merger = new ApiMerger();
+        merger.setCompressionLevel(level);
+        for (Image image : images) merger.addJar(image.api, image.output);
+        //noinspection IOStreamConstructor
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(merge))) {
+            merger.mergeTo(out);
+        }
+        System.out.println("Wrote " + merge);
+    }
+
+    private static List<Image> readBatch(File batch) throws IOException {
+        ArrayList<Image> images = new ArrayList<>();
+        //noinspection IOStreamConstructor
+        try (BufferedReader reader =
+                new BufferedReader(
+                        new InputStreamReader(
+                                new FileInputStream(batch), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] parts = line.split("\\s+");
+                if (parts.length < 3) {
+                    throw new IOException(lineNumber + ": expected <api> <output> <input>...");
+                }
+                int api;
+                try {
+                    api = Integer.parseInt(parts[0]);
+                } catch (NumberFormatException e) {
+                    throw new IOException(lineNumber + ": invalid API level " + parts[0]);
+                }
+                images.add(
+                        new Image(
+                                api,
+                                new File(parts[1]),
+                                Arrays.asList(parts).subList(2, parts.length)));
+            }
+        }
+        return images;
+    }
+
+    private static String value(String[] args, int index, String option) {
+        if (index >= args.length) throw new IllegalArgumentException(option + " needs a value");
+        return args[index];
+    }
+
+    private static int parseInt(String option, String value) {
+        try {
+            return Integer.parseInt(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + option + ": " + value);
+        }
+    }
+
+    private static class Image {
+        final int api;
+        final File output;
+        final List<String> inputs;
+
+        Image(int api, File output, List<String> inputs) {
+            this.api = api;
+            this.output = output;
+            this.inputs = inputs;
+        }
+    }
+}
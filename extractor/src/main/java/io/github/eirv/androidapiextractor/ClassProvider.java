@@ -0,0 +1,172 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import com.android.tools.smali.dexlib2.dexbacked.DexBackedClassDef;
+
+import com.google.common.primitives.Bytes;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Materializes single classes of an extraction on demand, without transforming the rest. Only
+ * the jars are loaded up front; a class is transformed the first time it is asked for, and the
+ * inaccessible classes its API refers to are resolved from that class alone. The bytes are kept
+ * in an LRU cache.
+ *
+ * <p>The bytes of a class are the same as those of its entry in the jar of a full extraction.
+ * An inaccessible class is only materialized if the accessible API refers to it. That is known
+ * for the dependencies of the classes materialized so far; for any other inaccessible class the
+ * references of the whole API are searched once. All methods are thread-safe.
+ *
+ * <p>A full extraction generates the {@code HiddenApiRestriction} annotation only if some class
+ * uses it. Likewise, it is available here once a class that uses it has been materialized.
+ */
+public class ClassProvider {
+    private static final byte[] MISSING = new byte[0];
+    private static final String HIDDEN_API_RESTRICTION =
+            TypeUtils.toCfName(AndroidApiExtractor.TYPE_HIDDEN_API_RESTRICTION);
+    // Part of the constant pool of every class file that uses the annotation
+    private static final byte[] HIDDEN_API_RESTRICTION_DESCRIPTOR =
+            AndroidApiExtractor.TYPE_HIDDEN_API_RESTRICTION.getBytes(StandardCharsets.UTF_8);
+
+    private final AndroidApiExtractor extractor;
+    private final ClassTable classTable;
+    private final TypeGraph graph;
+    private final LinkedHashMap<String, byte[]> cache;
+
+    /** The inaccessible classes known to be referenced by the accessible API. */
+    private final BitSet reached;
+
+    private BitSet referenced;
+    private volatile boolean usesHiddenApiRestrictions;
+
+    ClassProvider(AndroidApiExtractor extractor, ClassTable classTable, int cacheSize) {
+        if (cacheSize < 1) throw new IllegalArgumentException("cacheSize: " + cacheSize);
+        this.extractor = extractor;
+        this.classTable = classTable;
+        graph = new TypeGraph(classTable);
+        reached = new BitSet(classTable.size());
+        cache =
+                new LinkedHashMap<String, byte[]>(16, 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                        return size() > cacheSize;
+                    }
+                };
+    }
+
+    /**
+     * Returns the class file of the class with the internal name {@code name}, e.g. {@code
+     * android/app/Activity}, or {@code null} if the extraction has no such class.
+     */
+    public byte[] classBytes(String name) throws IOException {
+        if (HIDDEN_API_RESTRICTION.equals(name)) {
+            return usesHiddenApiRestrictions
+                    ? AndroidApiExtractor.makeHiddenApiRestrictionAnnotation()
+                    : null;
+        }
+        byte[] bytes;
+        synchronized (cache) {
+            bytes = cache.get(name);
+        }
+        if (bytes == null) {
+            bytes = materialize(name);
+            synchronized (cache) {
+                cache.put(name, bytes != null ? bytes : MISSING);
+            }
+        }
+        return bytes != MISSING ? bytes : null;
+    }
+
+    /**
+     * Returns the internal names of the inaccessible classes the API of the class {@code name}
+     * refers to, together with their inaccessible supertypes. Their bytes are available from
+     * {@link #classBytes}.
+     */
+    public List<String> getDependencies(String name) {
+        ArrayList<String> dependencies = new ArrayList<>();
+        int id = classTable.getId(toType(name));
+        if (id == -1) return dependencies;
+        BitSet closure = resolveDependencies(classTable.get(id));
+        for (int i = closure.nextSetBit(0); i != -1; i = closure.nextSetBit(i + 1)) {
+            dependencies.add(TypeUtils.toCfName(classTable.get(i).getType()));
+        }
+        return dependencies;
+    }
+
+    /** Returns the number of classes the extraction has, materialized or not. */
+    public int getClassCount() {
+        return classTable.size();
+    }
+
+    private byte[] materialize(String name) throws IOException {
+        int id = classTable.getId(toType(name));
+        if (id == -1) return null;
+        DexBackedClassDef classDef = classTable.get(id);
+        byte[] bytes = extractor.transformClass(classDef, classTable);
+        if (bytes != null) {
+            resolveDependencies(classDef);
+        } else if (AndroidApiExtractor.isInaccessible(classTable.getAccessFlags(id))
+                && isReferenced(id)) {
+            bytes = extractor.transformInaccessibleClass(classDef);
+        }
+        if (bytes != null && Bytes.indexOf(bytes, HIDDEN_API_RESTRICTION_DESCRIPTOR) != -1) {
+            usesHiddenApiRestrictions = true;
+        }
+        return bytes;
+    }
+
+    private BitSet resolveDependencies(DexBackedClassDef classDef) {
+        HashSet<String> types = new HashSet<>();
+        AndroidApiExtractor.collectReferencedTypes(types, classDef);
+        BitSet roots = new BitSet(graph.size());
+        for (String type : types) {
+            graph.addRoot(roots, type);
+        }
+        BitSet closure = graph.close(roots);
+        synchronized (reached) {
+            reached.or(closure);
+        }
+        return closure;
+    }
+
+    private boolean isReferenced(int id) throws IOException {
+        synchronized (reached) {
+            if (reached.get(id)) return true;
+        }
+        synchronized (this) {
+            // The whole API is searched at most once
+            if (referenced == null) {
+                referenced = extractor.searchReferencedInaccessibleClasses(classTable);
+            }
+            return referenced.get(id);
+        }
+    }
+
+    private static String toType(String name) {
+        return "L" + name + ";";
+    }
+}
@@ -0,0 +1,229 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import com.android.tools.smali.dexlib2.dexbacked.DexBackedClassDef;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * The classes of an extraction, numbered by int ids in the order they are added. Descriptors are
+ * looked up in an open-addressing table of ids, and the access flags and resolved supertypes of
+ * every class are kept in parallel arrays, so the closure and the transform do not have to go
+ * through dexlib2 or boxed map entries to answer them.
+ *
+ * <p>The class definitions themselves can be released and attached again, so that a table can
+ * outlive the dex files it was built from. Everything else stays available.
+ *
+ * <p>Classes are added, attached and released by a single thread. In between, the table may be
+ * read by any number of threads.
+ */
+public class ClassTable {
+    private static final int[] NO_INTERFACES = new int[0];
+
+    private String[] types;
+    private DexBackedClassDef[] classDefs;
+    private int[] accessFlags;
+    private int[] superclasses;
+    private int[][] interfaces;
+    private InnerClassRecord[] innerClasses;
+
+    // The supertypes by name, until link() resolves them
+    private String[] superclassNames;
+    private String[][] interfaceNames;
+
+    /** Open-addressing table of {@code id + 1}, indexed by the hash of the type; 0 is empty. */
+    private int[] slots;
+
+    private int size;
+
+    public ClassTable() {
+        this(1024);
+    }
+
+    public ClassTable(int expectedSize) {
+        int capacity = Math.max(16, expectedSize);
+        types = new String[capacity];
+        classDefs = new DexBackedClassDef[capacity];
+        accessFlags = new int[capacity];
+        superclassNames = new String[capacity];
+        interfaceNames = new String[capacity][];
+        slots = new int[Integer.highestOneBit(capacity * 2 - 1) * 2];
+    }
+
+    /**
+     * Adds {@code classDef} and returns its id, or returns -1 if a class of the same type was
+     * added before. Like the runtime, the first definition of a class wins.
+     */
+    public int add(DexBackedClassDef classDef) {
+        String type = classDef.getType();
+        int mask = slots.length - 1;
+        int slot = hash(type) & mask;
+        for (int id; (id = slots[slot]) != 0; slot = (slot + 1) & mask) {
+            if (type.equals(types[id - 1])) return -1;
+        }
+        if (size == types.length) {
+            int capacity = size * 2;
+            types = Arrays.copyOf(types, capacity);
+            classDefs = Arrays.copyOf(classDefs, capacity);
+            accessFlags = Arrays.copyOf(accessFlags, capacity);
+            superclassNames = Arrays.copyOf(superclassNames, capacity);
+            interfaceNames = Arrays.copyOf(interfaceNames, capacity);
+            if (innerClasses != null) innerClasses = Arrays.copyOf(innerClasses, capacity);
+        }
+        int id = size++;
+        types[id] = type;
+        classDefs[id] = classDef;
+        accessFlags[id] = classDef.getAccessFlags();
+        superclassNames[id] = classDef.getSuperclass();
+        List<String> names = classDef.getInterfaces();
+        interfaceNames[id] = names.toArray(new String[names.size()]);
+        slots[slot] = id + 1;
+        // Keep the load factor at or below 1/2, so that probe sequences stay short
+        if (size * 2 > slots.length) rehash();
+        return id;
+    }
+
+    private void rehash() {
+        int[] newSlots = new int[slots.length * 2];
+        int mask = newSlots.length - 1;
+        for (int id = 0; size > id; id++) {
+            int slot = hash(types[id]) & mask;
+            while (newSlots[slot] != 0) slot = (slot + 1) & mask;
+            newSlots[slot] = id + 1;
+        }
+        slots = newSlots;
+    }
+
+    private static int hash(String type) {
+        int h = type.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /** Resolves the supertypes of every class to ids. Call once after the last {@link #add}. */
+    public void link() {
+        superclasses = new int[size];
+        interfaces = new int[size][];
+        for (int id = 0; size > id; id++) {
+            superclasses[id] = getId(superclassNames[id]);
+            String[] names = interfaceNames[id];
+            if (names.length == 0) {
+                interfaces[id] = NO_INTERFACES;
+                continue;
+            }
+            int[] ids = new int[names.length];
+            int count = 0;
+            for (String name : names) {
+                int interfaceId = getId(name);
+                if (interfaceId != -1) ids[count++] = interfaceId;
+            }
+            interfaces[id] = count == ids.length ? ids : Arrays.copyOf(ids, count);
+        }
+        superclassNames = null;
+        interfaceNames = null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Returns the id of the class of {@code type}, or -1 if there is no such class. */
+    public int getId(String type) {
+        if (type == null) return -1;
+        int mask = slots.length - 1;
+        for (int slot = hash(type) & mask, id; (id = slots[slot]) != 0; slot = (slot + 1) & mask) {
+            if (type.equals(types[id - 1])) return id - 1;
+        }
+        return -1;
+    }
+
+    /** Returns the class definition of {@code id}, or {@code null} while it is released. */
+    public DexBackedClassDef get(int id) {
+        return classDefs[id];
+    }
+
+    /** Attaches {@code classDef} to {@code id} again, after the dex file was reloaded. */
+    public void attach(int id, DexBackedClassDef classDef) {
+        if (!types[id].equals(classDef.getType())) {
+            throw new IllegalArgumentException(classDef.getType() + " is not " + types[id]);
+        }
+        classDefs[id] = classDef;
+    }
+
+    /** Drops the class definitions of the ids {@code from} to {@code to}, exclusive. */
+    public void release(int from, int to) {
+        Arrays.fill(classDefs, from, to, null);
+    }
+
+    /** Returns the class of {@code type}, or {@code null} if it is missing or released. */
+    public DexBackedClassDef get(String type) {
+        int id = getId(type);
+        return id != -1 ? classDefs[id] : null;
+    }
+
+    public String getType(int id) {
+        return types[id];
+    }
+
+    public int getAccessFlags(int id) {
+        return accessFlags[id];
+    }
+
+    /** Returns the id of the superclass, or -1 if it is not in the table. */
+    public int getSuperclass(int id) {
+        return superclasses[id];
+    }
+
+    /** Returns the ids of the interfaces that are in the table. */
+    public int[] getInterfaces(int id) {
+        return interfaces[id];
+    }
+
+    /** Records the InnerClass annotation of {@code id}, for use after it is released. */
+    public void setInnerClass(int id, InnerClassRecord innerClass) {
+        if (innerClasses == null) innerClasses = new InnerClassRecord[types.length];
+        innerClasses[id] = innerClass;
+    }
+
+    /** Returns what {@link #setInnerClass} recorded for {@code id}, or {@code null}. */
+    public InnerClassRecord getInnerClass(int id) {
+        return innerClasses != null ? innerClasses[id] : null;
+    }
+
+    /** Returns every class, in id order. */
+    public List<DexBackedClassDef> getClassDefs() {
+        return getClassDefs(0, size);
+    }
+
+    /** Returns the classes of the ids {@code from} to {@code to}, exclusive. */
+    public List<DexBackedClassDef> getClassDefs(int from, int to) {
+        return Arrays.asList(classDefs).subList(from, to);
+    }
+
+    /** Returns the classes of {@code ids}, in id order. */
+    public List<DexBackedClassDef> getClassDefs(BitSet ids) {
+        ArrayList<DexBackedClassDef> result = new ArrayList<>(ids.cardinality());
+        for (int id = ids.nextSetBit(0); id != -1; id = ids.nextSetBit(id + 1)) {
+            result.add(classDefs[id]);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,220 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import com.android.tools.smali.dexlib2.DexFileFactory;
+import com.android.tools.smali.dexlib2.Opcodes;
+import com.android.tools.smali.dexlib2.dexbacked.DexBackedDexFile;
+import com.android.tools.smali.dexlib2.iface.MultiDexContainer;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Loads the dex files of a boot classpath jar, a standalone dex file or a vdex file.
+ *
+ * <p>{@link DexFileFactory#loadDexContainer} streams every entry through an inflater into a
+ * growing buffer. Here the input is memory-mapped instead: stored entries, which is how ART wants
+ * boot jars to be packaged, and standalone payloads are copied from the mapping into a byte array
+ * of exactly the right size, and only deflated entries go through an inflater. dexlib2 can only
+ * read dex files from a byte array, so the copy itself cannot be avoided.
+ */
+public class DexLoader {
+    private static final int ZIP_MAGIC = 0x04034b50;
+    private static final int DEX_MAGIC = 0x0a786564; // "dex\n"
+    private static final int VDEX_MAGIC = 0x78656476; // "vdex"
+    // Android 12 introduced the section table, and later versions kept it
+    private static final int VDEX_VERSION_SECTIONS = 27;
+    private static final int VDEX_SECTION_DEX_FILES = 1;
+    private static final int DEX_FILE_SIZE_OFFSET = 32;
+
+    private DexLoader() {}
+
+    public static List<DexBackedDexFile> load(File file, Opcodes opcodes) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            FileChannel channel = in.getChannel();
+            int magic = channel.size() >= 4 ? readMagic(channel) : 0;
+            switch (magic) {
+                case ZIP_MAGIC:
+                    return loadZip(channel, opcodes);
+                case DEX_MAGIC:
+                    {
+                        ArrayList<DexBackedDexFile> result = new ArrayList<>(1);
+                        result.add(new DexBackedDexFile(opcodes, map(channel, 0, channel.size())));
+                        return result;
+                    }
+                case VDEX_MAGIC:
+                    {
+                        List<DexBackedDexFile> result = loadVdex(channel, opcodes);
+                        if (result != null) return result;
+                        break;
+                    }
+                default:
+            }
+        }
+        return loadWithDexFileFactory(file, opcodes);
+    }
+
+    static List<DexBackedDexFile> loadWithDexFileFactory(File file, Opcodes opcodes)
+            throws IOException {
+        ArrayList<DexBackedDexFile> result = new ArrayList<>();
+        MultiDexContainer<? extends DexBackedDexFile> container =
+                DexFileFactory.loadDexContainer(file, opcodes);
+        for (String entryName : container.getDexEntryNames()) {
+            MultiDexContainer.DexEntry<? extends DexBackedDexFile> entry =
+                    container.getEntry(entryName);
+            assert entry != null;
+            result.add(entry.getDexFile());
+        }
+        return result;
+    }
+
+    private static List<DexBackedDexFile> loadZip(FileChannel channel, Opcodes opcodes)
+            throws IOException {
+        ArrayList<DexBackedDexFile> result = new ArrayList<>();
+        for (ZipCentralDirectory.Entry entry : ZipCentralDirectory.read(channel)) {
+            if (!isDexEntry(entry.name)) continue;
+            result.add(new DexBackedDexFile(opcodes, readEntry(channel, entry)));
+        }
+        return result;
+    }
+
+    /** Returns the uncompressed data of a zip entry of {@code channel}. */
+    static byte[] readEntry(FileChannel channel, ZipCentralDirectory.Entry entry)
+            throws IOException {
+        if (entry.size > Integer.MAX_VALUE) throw new ZipException("too large: " + entry.name);
+        if (entry.method == ZipEntry.STORED) {
+            return map(channel, entry.dataOffset, entry.size);
+        } else if (entry.method == ZipEntry.DEFLATED) {
+            return inflate(channel, entry);
+        } else {
+            throw new ZipException("unsupported compression method: " + entry.name);
+        }
+    }
+
+    /** Returns the data of a zip entry of {@code channel} as it is stored, without inflating it. */
+    static byte[] readRawEntry(FileChannel channel, ZipCentralDirectory.Entry entry)
+            throws IOException {
+        return map(channel, entry.dataOffset, entry.compressedSize);
+    }
+
+    /** Matches the entries ART loads from a jar: classes.dex, classes2.dex, classes3.dex... */
+    private static boolean isDexEntry(String name) {
+        if (!name.startsWith("classes") || !name.endsWith(".dex")) return false;
+        for (int i = "classes".length(), end = name.length() - ".dex".length(); end > i; i++) {
+            char c = name.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    /**
+     * Loads the dex section of a vdex file with the section table layout used since Android 12.
+     * Returns {@code null} for other versions.
+     */
+    private static List<DexBackedDexFile> loadVdex(FileChannel channel, Opcodes opcodes)
+            throws IOException {
+        ByteBuffer header = read(channel, 0, 12);
+        // The version is three digits and a NUL, "027\0" being the first with a section table
+        int version = 0;
+        for (int i = 4; 7 > i; i++) {
+            int digit = header.get(i) - '0';
+            if (digit < 0 || digit > 9) return null;
+            version = version * 10 + digit;
+        }
+        if (header.get(7) != 0 || version < VDEX_VERSION_SECTIONS) return null;
+        int sectionCount = header.getInt(8);
+        ByteBuffer sections = read(channel, 12, sectionCount * 12);
+        ArrayList<DexBackedDexFile> result = new ArrayList<>();
+        for (int i = 0; sectionCount > i; i++) {
+            if (sections.getInt(i * 12) != VDEX_SECTION_DEX_FILES) continue;
+            long offset = sections.getInt(i * 12 + 4) & 0xFFFFFFFFL;
+            long end = offset + (sections.getInt(i * 12 + 8) & 0xFFFFFFFFL);
+            while (end > offset) {
+                long size = read(channel, offset + DEX_FILE_SIZE_OFFSET, 4).getInt(0) & 0xFFFFFFFFL;
+                if (size == 0 || offset + size > end) throw new ZipException("invalid vdex");
+                result.add(new DexBackedDexFile(opcodes, map(channel, offset, size)));
+                // Dex files in the section are 4-byte aligned
+                offset = (offset + size + 3) & ~3L;
+            }
+        }
+        return result;
+    }
+
+    private static byte[] map(FileChannel channel, long offset, long size) throws IOException {
+        if (size > Integer.MAX_VALUE) throw new IOException("too large: " + size);
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, offset, size);
+        byte[] buf = new byte[(int) size];
+        mapped.get(buf);
+        return buf;
+    }
+
+    private static byte[] inflate(FileChannel channel, ZipCentralDirectory.Entry entry)
+            throws IOException {
+        MappedByteBuffer mapped =
+                channel.map(FileChannel.MapMode.READ_ONLY, entry.dataOffset, entry.compressedSize);
+        byte[] buf = new byte[(int) entry.size];
+        byte[] chunk = new byte[64 * 1024];
+        Inflater inflater = new Inflater(true);
+        try {
+            int count = 0;
+            while (!inflater.finished() && buf.length > count) {
+                if (inflater.needsInput()) {
+                    if (!mapped.hasRemaining()) throw new EOFException(entry.name);
+                    int length = Math.min(chunk.length, mapped.remaining());
+                    mapped.get(chunk, 0, length);
+                    inflater.setInput(chunk, 0, length);
+                }
+                count += inflater.inflate(buf, count, buf.length - count);
+            }
+            if (count != buf.length) throw new ZipException("invalid entry size: " + entry.name);
+        } catch (DataFormatException e) {
+            throw new ZipException(e.getMessage());
+        } finally {
+            inflater.end();
+        }
+        return buf;
+    }
+
+    private static int readMagic(FileChannel channel) throws IOException {
+        return read(channel, 0, 4).getInt(0);
+    }
+
+    private static ByteBuffer read(FileChannel channel, long offset, int length)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, offset + buffer.position());
+            if (count < 0) throw new EOFException();
+        }
+        return buffer;
+    }
+}
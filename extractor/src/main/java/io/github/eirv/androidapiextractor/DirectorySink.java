@@ -0,0 +1,137 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes every entry to a file of its own under a directory, e.g. {@code
+ * android/app/Activity.class}. The files are written by the worker pool in {@link #prepare}, so
+ * they are written in parallel and in no particular order. Resources are inflated.
+ *
+ * <p>The directory belongs to the sink. Files already in it are overwritten, and {@link #close}
+ * deletes those that were not written again, along with the directories left empty, so that it
+ * then holds exactly the entries of this run. That includes a run that failed. Symbolic links are
+ * left alone.
+ */
+public class DirectorySink implements OutputSink {
+    private static final byte[] EMPTY = new byte[0];
+
+    private final File dir;
+    private final LongAdder size = new LongAdder();
+    private final Set<String> written = ConcurrentHashMap.newKeySet();
+
+    public DirectorySink(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) throw new IOException("Failed to create " + dir);
+        this.dir = dir;
+    }
+
+    public File getDir() {
+        return dir;
+    }
+
+    /** Writes the file, and returns an entry without data that {@link #write} only counts. */
+    @Override
+    public JarWriter.Entry prepare(String name, byte[] data) throws IOException {
+        writeFile(name, data);
+        return new JarWriter.Entry(name, ZipEntry.STORED, 0, data.length, EMPTY);
+    }
+
+    @Override
+    public void write(JarWriter.Entry entry) throws IOException {
+        // Prepared entries are on disk already
+        if (!entry.isCompressed()) writeFile(entry.name, entry.data);
+    }
+
+    @Override
+    public void copy(ZipCentralDirectory.Entry entry, FileChannel source) throws IOException {
+        writeFile(entry.name, DexLoader.readEntry(source, entry));
+    }
+
+    @Override
+    public long getSize() {
+        return size.sum();
+    }
+
+    /** Deletes the files of an earlier run that were not written again. */
+    @Override
+    public void close() throws IOException {
+        prune(dir, "");
+    }
+
+    /** Returns whether {@code directory} is left empty. */
+    private boolean prune(File directory, String prefix) throws IOException {
+        File[] children = directory.listFiles();
+        if (children == null) throw new IOException("Failed to list " + directory);
+        boolean empty = true;
+        for (File child : children) {
+            String name = prefix + child.getName();
+            boolean keep;
+            if (isSymbolicLink(child)) {
+                keep = true;
+            } else if (child.isDirectory()) {
+                keep = !prune(child, name + "/");
+            } else {
+                keep = written.contains(name);
+            }
+            if (keep) {
+                empty = false;
+            } else if (!child.delete()) {
+                throw new IOException("Failed to delete " + child);
+            }
+        }
+        return empty;
+    }
+
+    /** Like {@code Files.isSymbolicLink}, which needs API 26. */
+    private static boolean isSymbolicLink(File file) throws IOException {
+        File parent = file.getAbsoluteFile().getParentFile().getCanonicalFile();
+        File unresolved = new File(parent, file.getName());
+        return !unresolved.getCanonicalFile().equals(unresolved);
+    }
+
+    private void writeFile(String name, byte[] data) throws IOException {
+        // Entry names of a resource APK are not to be trusted
+        if (name.startsWith("/")
+                || name.endsWith("/")
+                || ("/" + name + "/").contains("/../")
+                || name.contains("\\")) {
+            throw new ZipException("invalid entry name: " + name);
+        }
+        File file = new File(dir, name);
+        File parent = file.getParentFile();
+        // Another worker may create the same parent at the same time
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Failed to create " + parent);
+        }
+        //noinspection IOStreamConstructor
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        written.add(name);
+        size.add(data.length);
+    }
+}
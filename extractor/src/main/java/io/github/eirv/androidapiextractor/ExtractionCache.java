@@ -0,0 +1,226 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import com.android.tools.smali.dexlib2.dexbacked.DexBackedDexFile;
+import com.android.tools.smali.dexlib2.dexbacked.DexBuffer;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * An on-disk cache of what {@link AndroidApiExtractor#extract} produced for each input jar.
+ *
+ * <p>Entries are keyed by {@link #computeKey}, which covers the checksum and signature of every
+ * dex file of the jar and the extractor options that affect the generated classes. What a jar
+ * produces also depends on the other jars, so an entry records those inputs too, and the
+ * extractor checks them before reusing it.
+ *
+ * <p>While a jar is transformed, the classes done so far are checkpointed to a partial entry
+ * under the same key, so that an interrupted run can resume the jar instead of starting over.
+ */
+public class ExtractionCache {
+    private static final int MAGIC = 0x41414543; // "AAEC"
+    // Part of every key. Bump it whenever the extractor generates different bytes for the same
+    // input, so that entries of older versions are no longer found
+    private static final int VERSION = 2;
+    private static final int DEX_CHECKSUM_OFFSET = 8;
+    private static final int DEX_SIGNATURE_OFFSET = 12;
+    private static final int DEX_SIGNATURE_SIZE = 20;
+    private static final String PARTIAL_SUFFIX = ".partial";
+
+    private final File dir;
+
+    public ExtractionCache(File dir) {
+        this.dir = dir;
+    }
+
+    public static String computeKey(List<? extends DexBackedDexFile> dexFiles, String options) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putInt(VERSION);
+        hasher.putString(options, StandardCharsets.UTF_8);
+        hasher.putInt(dexFiles.size());
+        for (DexBackedDexFile dex : dexFiles) {
+            DexBuffer buffer = dex.getBuffer();
+            hasher.putInt(buffer.readInt(DEX_CHECKSUM_OFFSET));
+            for (int i = 0; DEX_SIGNATURE_SIZE > i; i++) {
+                hasher.putByte((byte) buffer.readUbyte(DEX_SIGNATURE_OFFSET + i));
+            }
+        }
+        return hasher.hash().toString();
+    }
+
+    /** Returns the entry stored under {@code key}, or {@code null} if there is no usable one. */
+    public Entry read(String key) {
+        return read(new File(dir, key), key);
+    }
+
+    /** Returns the partial entry of {@code key}, or {@code null} if there is no usable one. */
+    public Entry readPartial(String key) {
+        return read(new File(dir, key + PARTIAL_SUFFIX), key);
+    }
+
+    public void write(Entry entry) throws IOException {
+        write(entry, entry.key);
+    }
+
+    /** Checkpoints an entry whose jar is not done yet. */
+    public void writePartial(Entry entry) throws IOException {
+        write(entry, entry.key + PARTIAL_SUFFIX);
+    }
+
+    public void deletePartial(String key) {
+        //noinspection ResultOfMethodCallIgnored
+        new File(dir, key + PARTIAL_SUFFIX).delete();
+    }
+
+    private static Entry read(File file, String key) {
+        //noinspection IOStreamConstructor
+        try (DataInputStream in =
+                new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !key.equals(in.readUTF())) {
+                return null;
+            }
+            Entry entry = new Entry(key);
+            readStrings(in, entry.ownedTypes);
+            readStrings(in, entry.referencedTypes);
+            readStrings(in, entry.inaccessibleTypes);
+            int count = in.readInt();
+            for (int i = 0; count > i; i++) {
+                entry.externalTypes.put(in.readUTF(), in.readUTF());
+            }
+            entry.hasHiddenApiRestrictions = in.readBoolean();
+            readClasses(in, entry.classes);
+            readClasses(in, entry.inaccessibleClasses);
+            return entry;
+        } catch (FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            System.err.println("Ignoring broken cache entry " + file + ": " + e);
+            return null;
+        }
+    }
+
+    private void write(Entry entry, String name) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        File file = new File(dir, name);
+        File temp = new File(dir, name + ".tmp");
+        //noinspection IOStreamConstructor
+        try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(entry.key);
+            writeStrings(out, entry.ownedTypes);
+            writeStrings(out, entry.referencedTypes);
+            writeStrings(out, entry.inaccessibleTypes);
+            out.writeInt(entry.externalTypes.size());
+            for (Map.Entry<String, String> e : entry.externalTypes.entrySet()) {
+                out.writeUTF(e.getKey());
+                out.writeUTF(e.getValue());
+            }
+            out.writeBoolean(entry.hasHiddenApiRestrictions);
+            writeClasses(out, entry.classes);
+            writeClasses(out, entry.inaccessibleClasses);
+        }
+        try {
+            FileUtils.replace(file, temp);
+        } catch (IOException e) {
+            //noinspection ResultOfMethodCallIgnored
+            temp.delete();
+            throw e;
+        }
+    }
+
+    private static void readStrings(DataInputStream in, List<String> strings) throws IOException {
+        int count = in.readInt();
+        for (int i = 0; count > i; i++) {
+            strings.add(in.readUTF());
+        }
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings)
+            throws IOException {
+        out.writeInt(strings.size());
+        for (String string : strings) {
+            out.writeUTF(string);
+        }
+    }
+
+    private static void readClasses(DataInputStream in, Map<String, byte[]> classes)
+            throws IOException {
+        int count = in.readInt();
+        for (int i = 0; count > i; i++) {
+            String name = in.readUTF();
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            classes.put(name, bytes);
+        }
+    }
+
+    private static void writeClasses(DataOutputStream out, Map<String, byte[]> classes)
+            throws IOException {
+        out.writeInt(classes.size());
+        for (Map.Entry<String, byte[]> e : classes.entrySet()) {
+            out.writeUTF(e.getKey());
+            out.writeInt(e.getValue().length);
+            out.write(e.getValue());
+        }
+    }
+
+    public static class Entry {
+        public final String key;
+
+        /** Types this jar contributed, after classes defined by earlier jars were dropped. */
+        public final List<String> ownedTypes = new ArrayList<>();
+
+        /** Types referenced by the accessible API of the owned classes. */
+        public final List<String> referencedTypes = new ArrayList<>();
+
+        /** Owned types that were transformed as referenced inaccessible classes. */
+        public final List<String> inaccessibleTypes = new ArrayList<>();
+
+        /** Member classes defined by other jars, mapped to the key of that jar or "". */
+        public final TreeMap<String, String> externalTypes = new TreeMap<>();
+
+        public boolean hasHiddenApiRestrictions;
+        public final TreeMap<String, byte[]> classes = new TreeMap<>();
+        public final TreeMap<String, byte[]> inaccessibleClasses = new TreeMap<>();
+
+        public Entry(String key) {
+            this.key = key;
+        }
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+/**
+ * Receives the events {@link ExtractionMetrics} records while they happen. All methods are
+ * called on the thread that called the extractor, and do nothing by default.
+ */
+public interface ExtractionListener {
+    /**
+     * @param phase one of the {@code PHASE_} constants of {@link ExtractionMetrics}
+     */
+    default void onPhaseStarted(String phase) {}
+
+    /**
+     * @param items the number of classes or entries the phase handled
+     */
+    default void onPhaseFinished(String phase, long wallNanos, long cpuNanos, long items) {}
+
+    /**
+     * Called in steps of about a percent while a phase that knows its number of items runs.
+     * Streamed phases count the items handed to the jar writer.
+     */
+    default void onProgress(String phase, long done, long total) {}
+
+    default void onJarLoaded(ExtractionMetrics.JarLoad jar) {}
+
+    /** Called at the end of every extract or write with the metrics collected so far. */
+    default void onReport(ExtractionMetrics metrics) {}
+}
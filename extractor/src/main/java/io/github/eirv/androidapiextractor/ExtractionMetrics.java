@@ -0,0 +1,364 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Where the time and memory of an extraction went: wall and CPU time of every phase, the load
+ * time of every jar, bytes read and written, GC time and peak heap. A phase that runs more than
+ * once, e.g. once per jar, is summed up.
+ *
+ * <p>When classes are streamed to the output, writing overlaps the transform and inaccessible
+ * phases, and the time is part of them. It is also recorded as the write phase: the time the
+ * workers spent preparing, e.g. compressing, entries and the time the writer thread spent writing
+ * them, summed up across threads. Its CPU time is unknown.
+ *
+ * <p>CPU time is that of the whole process, since phases run on the worker pool. GC time and the
+ * peak heap, the sum of the peaks of the heap pools, come from {@code java.lang.management},
+ * which Android does not have. There the CPU time is read from {@code /proc/self/stat}, the peak
+ * heap is sampled whenever a phase ends, and the GC time is unknown. Unknown values are -1, and
+ * {@code null} in the JSON report.
+ */
+public class ExtractionMetrics {
+    public static final String PHASE_LOAD = "load";
+    public static final String PHASE_CLOSURE = "closure";
+    public static final String PHASE_TRANSFORM = "transform";
+    public static final String PHASE_INACCESSIBLE = "inaccessible";
+    public static final String PHASE_WRITE = "write";
+    public static final String PHASE_RESOURCES = "resources";
+
+    // Clock ticks of /proc/self/stat, USER_HZ is 100 on every Linux and Android build
+    private static final long NANOS_PER_TICK = 10000000;
+
+    private final ExtractionListener listener;
+    private final LinkedHashMap<String, Phase> phases = new LinkedHashMap<>();
+    private final ArrayList<JarLoad> jars = new ArrayList<>();
+    private final long startNanos;
+    private final long startCpuNanos;
+    private final long startGcMillis;
+    private final boolean hasHeapPools;
+    private long wallNanos;
+    private long cpuNanos = -1;
+    private long gcMillis = -1;
+    private long peakHeap;
+    private String currentPhase;
+    private long currentTotal;
+    private long currentDone;
+    private long nextProgress;
+
+    public long bytesIn;
+    public long bytesOut;
+
+    /**
+     * @param listener receives the events as they happen, or {@code null}
+     */
+    public ExtractionMetrics(ExtractionListener listener) {
+        this.listener = listener;
+        startNanos = System.nanoTime();
+        startCpuNanos = getProcessCpuNanos();
+        startGcMillis = getTotalGcMillis();
+        hasHeapPools = resetHeapPools();
+        sampleHeap();
+    }
+
+    /** Returns the value to pass to {@link #endPhase} once {@code phase} is done. */
+    public long[] startPhase(String phase) {
+        return startPhase(phase, 0);
+    }
+
+    /**
+     * Like {@link #startPhase(String)}, for a phase of {@code total} items whose progress is
+     * counted by {@link #advance}.
+     */
+    public long[] startPhase(String phase, long total) {
+        currentPhase = phase;
+        currentTotal = total;
+        currentDone = 0;
+        nextProgress = 0;
+        if (listener != null) listener.onPhaseStarted(phase);
+        return new long[] {System.nanoTime(), getProcessCpuNanos()};
+    }
+
+    /** Counts {@code items} more items of the current phase as done. */
+    public void advance(long items) {
+        if (listener == null || currentTotal == 0) return;
+        currentDone += items;
+        if (currentDone < nextProgress && currentDone < currentTotal) return;
+        nextProgress = currentDone + Math.max(1, currentTotal / 100);
+        listener.onProgress(currentPhase, Math.min(currentDone, currentTotal), currentTotal);
+    }
+
+    public void endPhase(String phase, long[] start, long items) {
+        currentPhase = null;
+        currentTotal = 0;
+        long wall = System.nanoTime() - start[0];
+        long cpu = start[1] == -1 ? -1 : getProcessCpuNanos() - start[1];
+        getPhase(phase).add(wall, cpu, items);
+        sampleHeap();
+        if (listener != null) listener.onPhaseFinished(phase, wall, cpu, items);
+    }
+
+    /**
+     * Records {@code nanos} that other threads spent on {@code phase} while the current phase
+     * ran, e.g. writing while classes are streamed, as a run of {@code phase} whose CPU time is
+     * unknown. Nothing is recorded if {@code phase} is the current phase, which is timed as a
+     * whole already.
+     */
+    public void addOverlappedPhase(String phase, long nanos, long items) {
+        if (phase.equals(currentPhase)) return;
+        // Keeps the phases of the report in the order they started
+        if (currentPhase != null) getPhase(currentPhase);
+        getPhase(phase).add(nanos, -1, items);
+    }
+
+    private Phase getPhase(String phase) {
+        Phase p = phases.get(phase);
+        if (p == null) {
+            p = new Phase(phase);
+            phases.put(phase, p);
+        }
+        return p;
+    }
+
+    public void jarLoaded(String path, long bytes, int dexFiles, int classes, long nanos) {
+        JarLoad jar = new JarLoad(path, bytes, dexFiles, classes, nanos);
+        jars.add(jar);
+        bytesIn += bytes;
+        sampleHeap();
+        if (listener != null) listener.onJarLoaded(jar);
+    }
+
+    /** Takes the totals up to now and hands the metrics to the listener. */
+    public void report() {
+        wallNanos = System.nanoTime() - startNanos;
+        long cpu = getProcessCpuNanos();
+        cpuNanos = cpu == -1 || startCpuNanos == -1 ? -1 : cpu - startCpuNanos;
+        long gc = getTotalGcMillis();
+        gcMillis = gc == -1 || startGcMillis == -1 ? -1 : gc - startGcMillis;
+        sampleHeap();
+        if (listener != null) listener.onReport(this);
+    }
+
+    public Collection<Phase> getPhases() {
+        return phases.values();
+    }
+
+    public List<JarLoad> getJars() {
+        return jars;
+    }
+
+    /** The time from the start of the extraction to the last {@link #report}. */
+    public long getWallNanos() {
+        return wallNanos;
+    }
+
+    public long getCpuNanos() {
+        return cpuNanos;
+    }
+
+    public long getGcMillis() {
+        return gcMillis;
+    }
+
+    public long getPeakHeap() {
+        return peakHeap;
+    }
+
+    public String toJson() {
+        StringBuilder sb = new StringBuilder();
+        sb.append("{\n");
+        sb.append("  \"wallMs\": ").append(wallNanos / 1000000).append(",\n");
+        sb.append("  \"cpuMs\": ").append(toJsonMillis(cpuNanos)).append(",\n");
+        sb.append("  \"gcMs\": ").append(gcMillis == -1 ? "null" : gcMillis).append(",\n");
+        sb.append("  \"peakHeapBytes\": ").append(peakHeap).append(",\n");
+        sb.append("  \"bytesIn\": ").append(bytesIn).append(",\n");
+        sb.append("  \"bytesOut\": ").append(bytesOut).append(",\n");
+        sb.append("  \"phases\": [");
+        String separator = "\n";
+        for (Phase p : phases.values()) {
+            sb.append(separator).append("    {\"name\": ").append(quote(p.name));
+            sb.append(", \"runs\": ").append(p.runs);
+            sb.append(", \"wallMs\": ").append(p.wallNanos / 1000000);
+            sb.append(", \"cpuMs\": ").append(toJsonMillis(p.cpuNanos));
+            sb.append(", \"items\": ").append(p.items);
+            sb.append(", \"itemsPerSecond\": ").append(p.getItemsPerSecond()).append('}');
+            separator = ",\n";
+        }
+        sb.append(phases.isEmpty() ? "],\n" : "\n  ],\n");
+        sb.append("  \"jars\": [");
+        separator = "\n";
+        for (JarLoad jar : jars) {
+            sb.append(separator).append("    {\"path\": ").append(quote(jar.path));
+            sb.append(", \"bytes\": ").append(jar.bytes);
+            sb.append(", \"dexFiles\": ").append(jar.dexFiles);
+            sb.append(", \"classes\": ").append(jar.classes);
+            sb.append(", \"loadMs\": ").append(jar.nanos / 1000000).append('}');
+            separator = ",\n";
+        }
+        sb.append(jars.isEmpty() ? "]\n" : "\n  ]\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static String toJsonMillis(long nanos) {
+        return nanos == -1 ? "null" : Long.toString(nanos / 1000000);
+    }
+
+    private static String quote(String s) {
+        StringBuilder sb = new StringBuilder(s.length() + 2);
+        sb.append('"');
+        for (int i = 0; s.length() > i; i++) {
+            char c = s.charAt(i);
+            if (c == '"' || c == '\\') {
+                sb.append('\\').append(c);
+            } else if (c < 0x20) {
+                sb.append(String.format("\\u%04x", (int) c));
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private void sampleHeap() {
+        long used;
+        if (hasHeapPools) {
+            used = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) used += pool.getPeakUsage().getUsed();
+            }
+        } else {
+            Runtime runtime = Runtime.getRuntime();
+            used = runtime.totalMemory() - runtime.freeMemory();
+        }
+        peakHeap = Math.max(peakHeap, used);
+    }
+
+    private static boolean resetHeapPools() {
+        try {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+            }
+            return true;
+        } catch (LinkageError | RuntimeException e) {
+            return false;
+        }
+    }
+
+    private static long getTotalGcMillis() {
+        try {
+            long total = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                long time = gc.getCollectionTime();
+                if (time > 0) total += time;
+            }
+            return total;
+        } catch (LinkageError | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static long getProcessCpuNanos() {
+        try {
+            Object os = ManagementFactory.getOperatingSystemMXBean();
+            if (os instanceof com.sun.management.OperatingSystemMXBean) {
+                long nanos = ((com.sun.management.OperatingSystemMXBean) os).getProcessCpuTime();
+                if (nanos != -1) return nanos;
+            }
+        } catch (LinkageError | RuntimeException e) {
+            // Not a HotSpot or OpenJ9 VM, or no java.lang.management at all
+        }
+        return readProcStatCpuNanos();
+    }
+
+    /** Returns utime + stime of {@code /proc/self/stat}, or -1 if it cannot be read. */
+    private static long readProcStatCpuNanos() {
+        byte[] buffer = new byte[1024];
+        int length = 0;
+        try (FileInputStream in = new FileInputStream("/proc/self/stat")) {
+            int count;
+            while (length < buffer.length
+                    && (count = in.read(buffer, length, buffer.length - length)) != -1) {
+                length += count;
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+        String stat = new String(buffer, 0, length, StandardCharsets.US_ASCII);
+        // The command name in parentheses may contain spaces, so count from its end. utime and
+        // stime are the 14th and 15th fields, the state after the name is the 3rd
+        String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+        if (fields.length < 13) return -1;
+        try {
+            return (Long.parseLong(fields[11]) + Long.parseLong(fields[12])) * NANOS_PER_TICK;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /** The totals of all runs of a phase. */
+    public static class Phase {
+        public final String name;
+        public int runs;
+        public long wallNanos;
+        public long cpuNanos;
+        public long items;
+
+        Phase(String name) {
+            this.name = name;
+        }
+
+        void add(long wall, long cpu, long items) {
+            runs++;
+            wallNanos += wall;
+            cpuNanos = cpu == -1 || cpuNanos == -1 ? -1 : cpuNanos + cpu;
+            this.items += items;
+        }
+
+        public long getItemsPerSecond() {
+            return wallNanos == 0 ? 0 : items * 1000000000L / wallNanos;
+        }
+    }
+
+    public static class JarLoad {
+        public final String path;
+        public final long bytes;
+        public final int dexFiles;
+        public final int classes;
+        public final long nanos;
+
+        JarLoad(String path, long bytes, int dexFiles, int classes, long nanos) {
+            this.path = path;
+            this.bytes = bytes;
+            this.dexFiles = dexFiles;
+            this.classes = classes;
+            this.nanos = nanos;
+        }
+    }
+}
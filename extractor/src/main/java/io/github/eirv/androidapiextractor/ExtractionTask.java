@@ -0,0 +1,111 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * An extraction started by {@link AndroidApiExtractor#extractAsync}. Its result is the output
+ * jar.
+ *
+ * <p>This is not a {@link java.util.concurrent.Future}, because cancelling is cooperative: {@link
+ * #requestCancel} asks the extractor to stop at the next class, and the task is done, and
+ * cancelled, only once it has stopped and saved its checkpoint. A task that completes before that
+ * still counts as completed. Wait with {@link #get} before starting another extraction with the
+ * same extractor.
+ */
+public class ExtractionTask {
+    private final AndroidApiExtractor extractor;
+    private final FutureTask<File> task;
+    private volatile boolean cancelled;
+
+    ExtractionTask(AndroidApiExtractor extractor, Callable<File> callable) {
+        this.extractor = extractor;
+        task =
+                new FutureTask<>(
+                        () -> {
+                            try {
+                                return callable.call();
+                            } catch (CancellationException e) {
+                                cancelled = true;
+                                throw e;
+                            }
+                        });
+    }
+
+    void start() {
+        new Thread(task, "AndroidApiExtractor").start();
+    }
+
+    /**
+     * Asks the extraction to stop at the next class, and returns without waiting for it to.
+     *
+     * @return {@code false} if the extraction is already done
+     */
+    public boolean requestCancel() {
+        if (task.isDone()) return false;
+        extractor.cancel();
+        return true;
+    }
+
+    /** Returns whether the extraction has stopped because it was cancelled. */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /** Returns whether the extraction has completed, failed or stopped after being cancelled. */
+    public boolean isDone() {
+        return task.isDone();
+    }
+
+    /**
+     * Waits for the extraction to stop and returns the output jar.
+     *
+     * @throws CancellationException if the extraction was cancelled
+     */
+    public File get() throws InterruptedException, ExecutionException {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    /** Like {@link #get()}, but waits at most {@code timeout}. */
+    public File get(long timeout, TimeUnit unit)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        try {
+            return task.get(timeout, unit);
+        } catch (ExecutionException e) {
+            throw unwrap(e);
+        }
+    }
+
+    private static ExecutionException unwrap(ExecutionException e) {
+        if (e.getCause() instanceof CancellationException) {
+            throw (CancellationException) e.getCause();
+        }
+        return e;
+    }
+}
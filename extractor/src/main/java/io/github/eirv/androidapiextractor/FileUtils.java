@@ -0,0 +1,46 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import java.io.File;
+import java.io.IOException;
+
+class FileUtils {
+    /**
+     * Replaces {@code file} with {@code temp}, so that {@code file} is always either the old or
+     * the new version. On Android, as on any POSIX system, the rename replaces it atomically.
+     * Where renaming onto an existing file fails, as on Windows, the old file is moved aside
+     * first, restored if the rename still fails, and deleted only once the new one is in place.
+     */
+    static void replace(File file, File temp) throws IOException {
+        if (temp.renameTo(file)) return;
+        File backup = new File(file.getPath() + ".bak");
+        //noinspection ResultOfMethodCallIgnored
+        backup.delete();
+        if (file.exists() && !file.renameTo(backup)) {
+            throw new IOException("Failed to write " + file);
+        }
+        if (!temp.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            backup.renameTo(file);
+            throw new IOException("Failed to write " + file);
+        }
+        //noinspection ResultOfMethodCallIgnored
+        backup.delete();
+    }
+}
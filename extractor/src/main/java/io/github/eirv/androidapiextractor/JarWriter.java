@@ -0,0 +1,387 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A minimal jar writer that, unlike {@link java.util.jar.JarOutputStream}, accepts entries that
+ * were already compressed elsewhere. {@link #compress} is thread-safe, so entries can be deflated
+ * on a worker pool and then appended in order with {@link #write(Entry)}, and entries of other zip
+ * files can be {@link #copy copied} without being recompressed.
+ *
+ * <p>Every entry gets the DOS epoch as its timestamp and sizes are always known up front, so no
+ * data descriptors are written. ZIP64 end records are emitted when the entry count or the central
+ * directory offset needs them.
+ */
+public class JarWriter implements OutputSink {
+    /** Compression level that stores entries without deflating them. */
+    public static final int STORED = Deflater.NO_COMPRESSION;
+
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int JAR_MAGIC_EXTRA_SIZE = 4;
+    private static final int JAR_MAGIC = 0xCAFE;
+    private static final int FLAG_UTF8 = 0x0800;
+    private static final int DOS_EPOCH = 0x00210000; // 1980-01-01 00:00:00
+    private static final int VERSION_DEFAULT = 20;
+    private static final int VERSION_ZIP64 = 45;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int ZIP64_MAGIC_COUNT = 0xFFFF;
+
+    // Ended by releaseDeflater
+    private static final ThreadLocal<Deflater> DEFLATERS = new ThreadLocal<>();
+
+    private final OutputStream out;
+    private final WritableByteChannel channel;
+    private final int level;
+    private final ArrayList<CentralRecord> records = new ArrayList<>();
+    private final HashMap<String, CentralRecord> recordsByName = new HashMap<>();
+    private final byte[] buffer = new byte[64];
+    private long offset;
+    private boolean closed;
+
+    /**
+     * @param level a {@link Deflater} level from 1 to 9, or {@link #STORED}
+     */
+    public JarWriter(OutputStream out, int level) {
+        if (level < STORED || level > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("level: " + level);
+        }
+        this.out = out;
+        this.channel = Channels.newChannel(out);
+        this.level = level;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    /** Returns the number of bytes written so far, the central directory included once closed. */
+    @Override
+    public long getSize() {
+        return offset;
+    }
+
+    /**
+     * Returns where the data of the entry {@code name} was written, or {@code null} if there is
+     * no such entry.
+     */
+    @Override
+    public ZipCentralDirectory.Entry getEntry(String name) {
+        CentralRecord record = recordsByName.get(name);
+        if (record == null) return null;
+        long dataOffset = record.offset + LOCAL_HEADER_SIZE + record.name.length;
+        if (record == records.get(0)) dataOffset += JAR_MAGIC_EXTRA_SIZE;
+        return new ZipCentralDirectory.Entry(
+                name, record.method, record.crc, record.size, record.compressedSize, dataOffset);
+    }
+
+    /** Compresses {@code data} at this writer's level. May be called from any thread. */
+    public Entry compress(String name, byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        if (level == STORED) {
+            return new Entry(name, ZipEntry.STORED, crc.getValue(), data.length, data);
+        }
+        Deflater deflater = DEFLATERS.get();
+        if (deflater == null) {
+            deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            DEFLATERS.set(deflater);
+        } else {
+            deflater.reset();
+        }
+        deflater.setLevel(level);
+        deflater.setInput(data, 0, data.length);
+        deflater.finish();
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 2 + 64);
+        byte[] chunk = new byte[8192];
+        while (!deflater.finished()) {
+            int count = deflater.deflate(chunk);
+            compressed.write(chunk, 0, count);
+        }
+        return new Entry(
+                name, ZipEntry.DEFLATED, crc.getValue(), data.length, compressed.toByteArray());
+    }
+
+    /**
+     * Ends the deflater {@link #compress} keeps for the calling thread, if it has one. Threads
+     * that compress call this before they exit, so that the native zlib stream is not left to
+     * the finalizer.
+     */
+    static void releaseDeflater() {
+        Deflater deflater = DEFLATERS.get();
+        if (deflater == null) return;
+        DEFLATERS.remove();
+        deflater.end();
+    }
+
+    /** Same as {@link #compress}. */
+    @Override
+    public Entry prepare(String name, byte[] data) {
+        return compress(name, data);
+    }
+
+    /** Compresses {@code data} on the calling thread and appends it. */
+    @Override
+    public void write(String name, byte[] data) throws IOException {
+        write(compress(name, data));
+    }
+
+    /**
+     * Appends an entry. Entries that were not produced by {@link #compress} are compressed on the
+     * calling thread first.
+     */
+    @Override
+    public void write(Entry entry) throws IOException {
+        if (!entry.isCompressed()) entry = compress(entry.name, entry.data);
+        writeLocalHeader(entry.name, entry.method, entry.crc, entry.size, entry.data.length);
+        writeBytes(entry.data, 0, entry.data.length);
+    }
+
+    /**
+     * Appends an entry of another zip file by transferring its compressed data from {@code
+     * source} as is, without inflating it.
+     */
+    @Override
+    public void copy(ZipCentralDirectory.Entry entry, FileChannel source) throws IOException {
+        if (entry.method != ZipEntry.STORED && entry.method != ZipEntry.DEFLATED) {
+            throw new ZipException("unsupported compression method: " + entry.name);
+        }
+        writeLocalHeader(entry.name, entry.method, entry.crc, entry.size, entry.compressedSize);
+        long position = entry.dataOffset;
+        long remaining = entry.compressedSize;
+        while (remaining > 0) {
+            long count = source.transferTo(position, remaining, channel);
+            if (count <= 0) throw new ZipException("truncated entry: " + entry.name);
+            position += count;
+            remaining -= count;
+        }
+        offset += entry.compressedSize;
+    }
+
+    /** Appends a directory entry. {@code name} ends with a slash. */
+    public void writeDirectory(String name) throws IOException {
+        if (!name.endsWith("/")) throw new IllegalArgumentException("Not a directory: " + name);
+        writeLocalHeader(name, ZipEntry.STORED, 0, 0, 0);
+    }
+
+    private void writeLocalHeader(
+            String entryName, int method, long crc, long size, long compressedSize)
+            throws IOException {
+        if (closed) throw new IOException("Stream closed");
+        if (recordsByName.containsKey(entryName)) {
+            throw new ZipException("duplicate entry: " + entryName);
+        }
+        if (size >= ZIP64_MAGIC || compressedSize >= ZIP64_MAGIC) {
+            throw new ZipException("entry too large: " + entryName);
+        }
+
+        byte[] name = entryName.getBytes(StandardCharsets.UTF_8);
+        // Like JarOutputStream, mark the first entry so the file is recognized as a jar
+        boolean first = records.isEmpty();
+        int extraLength = first ? JAR_MAGIC_EXTRA_SIZE : 0;
+        CentralRecord record = new CentralRecord(name, method, crc, size, compressedSize, offset);
+        records.add(record);
+        recordsByName.put(entryName, record);
+
+        writeInt(LOCAL_HEADER_SIGNATURE);
+        writeShort(VERSION_DEFAULT);
+        writeShort(FLAG_UTF8);
+        writeShort(method);
+        writeInt(DOS_EPOCH);
+        writeInt((int) crc);
+        writeInt((int) compressedSize);
+        writeInt((int) size);
+        writeShort(name.length);
+        writeShort(extraLength);
+        writeBytes(name, 0, name.length);
+        if (first) {
+            writeShort(JAR_MAGIC);
+            writeShort(0);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            finish();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void finish() throws IOException {
+        long centralOffset = offset;
+        for (int i = 0; records.size() > i; i++) {
+            CentralRecord record = records.get(i);
+            boolean zip64 = record.offset >= ZIP64_MAGIC;
+            int extraLength = (i == 0 ? 4 : 0) + (zip64 ? 12 : 0);
+
+            writeInt(CENTRAL_HEADER_SIGNATURE);
+            writeShort(zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+            writeShort(zip64 ? VERSION_ZIP64 : VERSION_DEFAULT);
+            writeShort(FLAG_UTF8);
+            writeShort(record.method);
+            writeInt(DOS_EPOCH);
+            writeInt((int) record.crc);
+            writeInt((int) record.compressedSize);
+            writeInt((int) record.size);
+            writeShort(record.name.length);
+            writeShort(extraLength);
+            writeShort(0); // comment length
+            writeShort(0); // disk number
+            writeShort(0); // internal attributes
+            writeInt(0); // external attributes
+            writeInt(zip64 ? (int) ZIP64_MAGIC : (int) record.offset);
+            writeBytes(record.name, 0, record.name.length);
+            if (i == 0) {
+                writeShort(JAR_MAGIC);
+                writeShort(0);
+            }
+            if (zip64) {
+                writeShort(ZIP64_EXTRA_ID);
+                writeShort(8);
+                writeLong(record.offset);
+            }
+        }
+        long centralSize = offset - centralOffset;
+        int count = records.size();
+
+        if (count >= ZIP64_MAGIC_COUNT || centralOffset >= ZIP64_MAGIC) {
+            long zip64EndOffset = offset;
+            writeInt(ZIP64_END_SIGNATURE);
+            writeLong(44); // size of the remaining record
+            writeShort(VERSION_ZIP64);
+            writeShort(VERSION_ZIP64);
+            writeInt(0); // this disk
+            writeInt(0); // disk with the central directory
+            writeLong(count);
+            writeLong(count);
+            writeLong(centralSize);
+            writeLong(centralOffset);
+
+            writeInt(ZIP64_LOCATOR_SIGNATURE);
+            writeInt(0);
+            writeLong(zip64EndOffset);
+            writeInt(1);
+        }
+
+        writeInt(END_SIGNATURE);
+        writeShort(0);
+        writeShort(0);
+        writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+        writeShort(Math.min(count, ZIP64_MAGIC_COUNT));
+        writeInt((int) Math.min(centralSize, ZIP64_MAGIC));
+        writeInt((int) Math.min(centralOffset, ZIP64_MAGIC));
+        writeShort(0); // comment length
+        out.flush();
+    }
+
+    private void writeShort(int v) throws IOException {
+        buffer[0] = (byte) v;
+        buffer[1] = (byte) (v >>> 8);
+        writeBytes(buffer, 0, 2);
+    }
+
+    private void writeInt(int v) throws IOException {
+        buffer[0] = (byte) v;
+        buffer[1] = (byte) (v >>> 8);
+        buffer[2] = (byte) (v >>> 16);
+        buffer[3] = (byte) (v >>> 24);
+        writeBytes(buffer, 0, 4);
+    }
+
+    private void writeLong(long v) throws IOException {
+        writeInt((int) v);
+        writeInt((int) (v >>> 32));
+    }
+
+    private void writeBytes(byte[] b, int off, int len) throws IOException {
+        out.write(b, off, len);
+        offset += len;
+    }
+
+    public static class Entry {
+        public final String name;
+        public final int method;
+        public final long crc;
+        public final long size;
+
+        final byte[] data;
+
+        /** Creates an entry that {@link #write(Entry)} will compress when it is appended. */
+        public Entry(String name, byte[] data) {
+            this(name, -1, 0, data.length, data);
+        }
+
+        Entry(String name, int method, long crc, long size, byte[] data) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.data = data;
+        }
+
+        public boolean isCompressed() {
+            return method != -1;
+        }
+
+        public long getCompressedSize() {
+            return data.length;
+        }
+    }
+
+    private static class CentralRecord {
+        final byte[] name;
+        final int method;
+        final long crc;
+        final long size;
+        final long compressedSize;
+        final long offset;
+
+        CentralRecord(
+                byte[] name, int method, long crc, long size, long compressedSize, long offset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.offset = offset;
+        }
+    }
+}
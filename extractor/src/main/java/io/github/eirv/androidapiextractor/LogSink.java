@@ -0,0 +1,131 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An output stream for log output that keeps only its last bytes in a ring buffer, so that a
+ * viewer can poll the tail at its own pace instead of being called for every write. Everything
+ * is also appended to a log file, if one is given.
+ *
+ * <p>Writes never block on the viewer, and the cost of {@link #pollTail} is bounded by the
+ * capacity, no matter how much has been written. All methods are thread-safe.
+ */
+public class LogSink extends OutputStream {
+    private final byte[] ring;
+    private final File file;
+    private final OutputStream fileOut;
+    private long written;
+    private long polled;
+    private boolean closed;
+
+    /**
+     * @param capacity the number of bytes the tail keeps
+     * @param file receives the full log, or {@code null}
+     */
+    public LogSink(int capacity, File file) throws IOException {
+        if (capacity < 1) throw new IllegalArgumentException("capacity: " + capacity);
+        ring = new byte[capacity];
+        this.file = file;
+        //noinspection IOStreamConstructor
+        fileOut = file != null ? new BufferedOutputStream(new FileOutputStream(file)) : null;
+    }
+
+    /** Returns the file that receives the full log, or {@code null}. */
+    public File getFile() {
+        return file;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        if (fileOut != null && !closed) fileOut.write(b, off, len);
+        written += len;
+        // Only the last ring.length bytes can survive
+        if (len > ring.length) {
+            off += len - ring.length;
+            len = ring.length;
+        }
+        int position = (int) ((written - len) % ring.length);
+        int first = Math.min(len, ring.length - position);
+        System.arraycopy(b, off, ring, position, first);
+        System.arraycopy(b, off + first, ring, 0, len - first);
+    }
+
+    /** Returns the number of bytes written so far. */
+    public synchronized long getWritten() {
+        return written;
+    }
+
+    /**
+     * Returns the tail if anything has been written since the last call, or {@code null}. If
+     * older output has been dropped, the tail starts after a line break, unless the last line
+     * fills all of it, and never with a partial character.
+     */
+    public String pollTail() {
+        byte[] tail;
+        boolean truncated;
+        synchronized (this) {
+            if (written == polled) return null;
+            polled = written;
+            truncated = written > ring.length;
+            int length = (int) Math.min(written, ring.length);
+            int start = (int) ((written - length) % ring.length);
+            tail = new byte[length];
+            int first = Math.min(length, ring.length - start);
+            System.arraycopy(ring, start, tail, 0, first);
+            System.arraycopy(ring, 0, tail, first, length - first);
+        }
+        int offset = 0;
+        if (truncated) {
+            while (offset < tail.length && tail[offset] != '\n') offset++;
+            if (tail.length - 1 > offset) {
+                offset++;
+            } else {
+                // The last line alone fills the tail, skip to the start of a character
+                offset = 0;
+                while (offset < tail.length && (tail[offset] & 0xC0) == 0x80) offset++;
+            }
+        }
+        return new String(tail, offset, tail.length - offset, StandardCharsets.UTF_8);
+    }
+
+    /** Flushes the log file. */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (fileOut != null && !closed) fileOut.flush();
+    }
+
+    /** Closes the log file. The tail keeps taking writes. */
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        if (fileOut != null) fileOut.close();
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipException;
+
+/**
+ * Keeps the uncompressed entries in memory, in the order they are written, for tests and for
+ * embedding the extractor. Resources are inflated.
+ */
+public class MemorySink implements OutputSink {
+    private final LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>();
+    private long size;
+
+    /** Returns the entries by name, in the order they were written. */
+    public synchronized Map<String, byte[]> getEntries() {
+        return Collections.unmodifiableMap(new LinkedHashMap<>(entries));
+    }
+
+    /** Returns the data of the entry {@code name}, or {@code null} if there is no such entry. */
+    public synchronized byte[] get(String name) {
+        return entries.get(name);
+    }
+
+    @Override
+    public JarWriter.Entry prepare(String name, byte[] data) {
+        return new JarWriter.Entry(name, data);
+    }
+
+    @Override
+    public void write(JarWriter.Entry entry) throws IOException {
+        if (entry.isCompressed()) throw new IllegalArgumentException("Compressed: " + entry.name);
+        put(entry.name, entry.data);
+    }
+
+    @Override
+    public void copy(ZipCentralDirectory.Entry entry, FileChannel source) throws IOException {
+        put(entry.name, DexLoader.readEntry(source, entry));
+    }
+
+    private synchronized void put(String name, byte[] data) throws ZipException {
+        if (entries.containsKey(name)) throw new ZipException("duplicate entry: " + name);
+        entries.put(name, data);
+        size += data.length;
+    }
+
+    @Override
+    public synchronized long getSize() {
+        return size;
+    }
+
+    @Override
+    public void close() {}
+}
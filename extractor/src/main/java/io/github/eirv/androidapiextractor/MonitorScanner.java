@@ -0,0 +1,115 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import com.android.tools.smali.dexlib2.Opcode;
+import com.android.tools.smali.dexlib2.Opcodes;
+import com.android.tools.smali.dexlib2.dexbacked.CDexBackedDexFile;
+import com.android.tools.smali.dexlib2.dexbacked.DexBuffer;
+import com.android.tools.smali.dexlib2.dexbacked.instruction.DexBackedInstruction;
+import com.android.tools.smali.dexlib2.dexbacked.raw.CodeItem;
+import com.android.tools.smali.dexlib2.iface.MethodImplementation;
+import com.android.tools.smali.dexlib2.iface.instruction.Instruction;
+
+import java.util.Iterator;
+
+/**
+ * Finds {@code monitor-enter} in a method by walking its code units. Only the opcode of each
+ * instruction is read, to know how far to skip, so no {@link Instruction} is created past the
+ * first one.
+ */
+public class MonitorScanner {
+    private static final int PACKED_SWITCH_PAYLOAD = 0x100;
+    private static final int SPARSE_SWITCH_PAYLOAD = 0x200;
+    private static final int ARRAY_PAYLOAD = 0x300;
+
+    /** The number of code units of each opcode, or 0 if it is unknown or a payload. */
+    private final byte[] codeUnits = new byte[256];
+
+    private final int monitorEnter;
+
+    public MonitorScanner(Opcodes opcodes) {
+        for (int i = 0; codeUnits.length > i; i++) {
+            Opcode opcode = opcodes.getOpcodeByValue(i);
+            if (opcode == null || opcode.format.isPayloadFormat || opcode.format.size <= 0) {
+                continue;
+            }
+            codeUnits[i] = (byte) (opcode.format.size / 2);
+        }
+        monitorEnter = opcodes.getOpcodeValue(Opcode.MONITOR_ENTER);
+    }
+
+    /** Returns whether {@code implementation} contains a {@code monitor-enter}. */
+    public boolean hasMonitorEnter(MethodImplementation implementation) {
+        Iterator<? extends Instruction> instructions =
+                implementation.getInstructions().iterator();
+        if (!instructions.hasNext()) return false;
+        Instruction first = instructions.next();
+        // Compact dex keeps the size of the instructions elsewhere
+        if (!(first instanceof DexBackedInstruction)
+                || ((DexBackedInstruction) first).dexFile instanceof CDexBackedDexFile) {
+            return decode(implementation);
+        }
+
+        DexBackedInstruction instruction = (DexBackedInstruction) first;
+        DexBuffer buffer = instruction.dexFile.getDataBuffer();
+        int start = instruction.instructionStart;
+        int count =
+                buffer.readSmallUint(
+                        start - CodeItem.INSTRUCTION_START_OFFSET
+                                + CodeItem.INSTRUCTION_COUNT_OFFSET);
+        int end = start + count * 2;
+        for (int offset = start; end > offset; ) {
+            int opcode = buffer.readUbyte(offset);
+            if (opcode == monitorEnter) return true;
+            int size = codeUnits[opcode];
+            if (opcode == 0) {
+                size = getPayloadSize(buffer, offset);
+            }
+            if (size == 0) return decode(implementation);
+            offset += size * 2;
+        }
+        return false;
+    }
+
+    /** Returns the number of code units of the nop or payload at {@code offset}. */
+    private int getPayloadSize(DexBuffer buffer, int offset) {
+        switch (buffer.readUshort(offset)) {
+            case PACKED_SWITCH_PAYLOAD:
+                return 4 + buffer.readUshort(offset + 2) * 2;
+            case SPARSE_SWITCH_PAYLOAD:
+                return 2 + buffer.readUshort(offset + 2) * 4;
+            case ARRAY_PAYLOAD:
+                {
+                    int elementWidth = buffer.readUshort(offset + 2);
+                    int elementCount = buffer.readSmallUint(offset + 4);
+                    return 4 + (elementWidth * elementCount + 1) / 2;
+                }
+            default:
+                return codeUnits[0];
+        }
+    }
+
+    /** Decodes every instruction, for code the scanner does not know how to walk. */
+    static boolean decode(MethodImplementation implementation) {
+        for (Instruction instruction : implementation.getInstructions()) {
+            if (instruction.getOpcode() == Opcode.MONITOR_ENTER) return true;
+        }
+        return false;
+    }
+}
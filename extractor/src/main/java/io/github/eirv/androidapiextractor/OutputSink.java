@@ -0,0 +1,65 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+/**
+ * Where an extraction writes its classes and resources. Every entry is first {@link #prepare
+ * prepared} on the worker pool, where a sink does whatever work can run in parallel, e.g.
+ * compressing the entry or writing it to a file of its own. The prepared entries are then
+ * {@link #write(JarWriter.Entry) written} one at a time, in output order, by a single thread.
+ *
+ * <p>{@link JarWriter} is the default sink. {@link DirectorySink} explodes the output into a
+ * directory tree, {@link MemorySink} keeps it in memory and {@link PackageJarSink} writes a jar
+ * grouped by package.
+ */
+public interface OutputSink extends Closeable {
+    /**
+     * Prepares {@code data} to be written as the entry {@code name}. May be called from any
+     * thread.
+     */
+    JarWriter.Entry prepare(String name, byte[] data) throws IOException;
+
+    /**
+     * Appends an entry that {@link #prepare} returned, or one created by {@link
+     * JarWriter.Entry#Entry(String, byte[])}, which is prepared on the calling thread first.
+     */
+    void write(JarWriter.Entry entry) throws IOException;
+
+    /** Prepares {@code data} on the calling thread and appends it. */
+    default void write(String name, byte[] data) throws IOException {
+        write(prepare(name, data));
+    }
+
+    /** Appends an entry of another zip file, reading its data from {@code source}. */
+    void copy(ZipCentralDirectory.Entry entry, FileChannel source) throws IOException;
+
+    /** Returns the number of bytes written so far. */
+    long getSize();
+
+    /**
+     * Returns where the data of the entry {@code name} was written in a jar, or {@code null} if
+     * there is no such entry or the sink is not a jar.
+     */
+    default ZipCentralDirectory.Entry getEntry(String name) {
+        return null;
+    }
+}
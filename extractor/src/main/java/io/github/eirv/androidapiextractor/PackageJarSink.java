@@ -0,0 +1,127 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * Writes a jar whose entries are grouped by package, each package preceded by the entries of its
+ * directory and of every parent directory that has not had one yet. Tools that scan a classpath
+ * package by package then read the jar sequentially, and class loaders can list and look up the
+ * packages by their directory entries.
+ *
+ * <p>The entries are compressed on the worker pool as usual, but held until {@link #close} to
+ * be written in that order, so the sink needs about as much memory as the jar it writes.
+ */
+public class PackageJarSink implements OutputSink {
+    private final JarWriter jar;
+    private final TreeMap<String, TreeMap<String, JarWriter.Entry>> packages = new TreeMap<>();
+    private long size;
+    private boolean closed;
+
+    /**
+     * @param level a {@link java.util.zip.Deflater} level from 1 to 9, or {@link JarWriter#STORED}
+     */
+    public PackageJarSink(OutputStream out, int level) {
+        jar = new JarWriter(out, level);
+    }
+
+    @Override
+    public JarWriter.Entry prepare(String name, byte[] data) {
+        return jar.compress(name, data);
+    }
+
+    @Override
+    public void write(JarWriter.Entry entry) throws IOException {
+        if (!entry.isCompressed()) entry = jar.compress(entry.name, entry.data);
+        add(entry);
+    }
+
+    /** Holds the compressed data of the entry, which is written as is. */
+    @Override
+    public void copy(ZipCentralDirectory.Entry entry, FileChannel source) throws IOException {
+        if (entry.method != ZipEntry.STORED && entry.method != ZipEntry.DEFLATED) {
+            throw new ZipException("unsupported compression method: " + entry.name);
+        }
+        add(
+                new JarWriter.Entry(
+                        entry.name,
+                        entry.method,
+                        entry.crc,
+                        entry.size,
+                        DexLoader.readRawEntry(source, entry)));
+    }
+
+    private void add(JarWriter.Entry entry) throws IOException {
+        if (closed) throw new IOException("Stream closed");
+        String dir = entry.name.substring(0, entry.name.lastIndexOf('/') + 1);
+        TreeMap<String, JarWriter.Entry> entries = packages.get(dir);
+        if (entries == null) {
+            entries = new TreeMap<>();
+            packages.put(dir, entries);
+        }
+        if (entries.put(entry.name, entry) != null) {
+            throw new ZipException("duplicate entry: " + entry.name);
+        }
+        size += entry.getCompressedSize();
+    }
+
+    /**
+     * Returns the compressed size of the entries so far until the sink is closed, and the size of
+     * the jar afterwards.
+     */
+    @Override
+    public long getSize() {
+        return closed ? jar.getSize() : size;
+    }
+
+    @Override
+    public ZipCentralDirectory.Entry getEntry(String name) {
+        return jar.getEntry(name);
+    }
+
+    /** Writes the jar and closes the stream. */
+    @Override
+    public void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        try {
+            HashSet<String> dirs = new HashSet<>();
+            for (Map.Entry<String, TreeMap<String, JarWriter.Entry>> p : packages.entrySet()) {
+                String dir = p.getKey();
+                for (int i = dir.indexOf('/'); i != -1; i = dir.indexOf('/', i + 1)) {
+                    String parent = dir.substring(0, i + 1);
+                    if (dirs.add(parent)) jar.writeDirectory(parent);
+                }
+                for (JarWriter.Entry entry : p.getValue().values()) {
+                    jar.write(entry);
+                }
+            }
+            packages.clear();
+        } finally {
+            jar.close();
+        }
+    }
+}
@@ -0,0 +1,463 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * A binary index of the classes and members of a jar, with their access flags and hidden API
+ * restrictions and where each class file is stored in the jar. It is meant to be memory-mapped:
+ * all names are in one string table sorted by their UTF-8 bytes, so every lookup is a binary
+ * search over fixed-size records, and nothing is parsed up front.
+ *
+ * <p>The file is little-endian. A header of {@value #HEADER_SIZE} bytes holds the magic, the
+ * version, the record counts and the offsets of the four sections:
+ *
+ * <ul>
+ *   <li>Classes, {@value #CLASS_SIZE} bytes each, sorted by name: name, access flags,
+ *       restriction, first member, member count and compression method as ints, then the data
+ *       offset of the class file in the jar as a long, or -1, and its compressed and uncompressed
+ *       sizes as ints.
+ *   <li>Members, {@value #MEMBER_SIZE} bytes each, grouped by class and sorted by name and
+ *       descriptor: name, descriptor, access flags and restriction as ints. Methods are the
+ *       members whose descriptor starts with {@code (}.
+ *   <li>String offsets, one int per string and one for the end of the last string.
+ *   <li>String data, UTF-8.
+ * </ul>
+ *
+ * Names and descriptors refer to strings by their index. A restriction is the string of comma
+ * separated {@code HiddenApiRestriction} values, or -1 for none.
+ */
+public class SymbolIndex {
+    private static final int MAGIC = 0x49454141; // "AAEI"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 40;
+    private static final int CLASS_SIZE = 40;
+    private static final int MEMBER_SIZE = 16;
+    private static final String NO_RESTRICTION = "-";
+
+    private final ByteBuffer buffer;
+    private final int classCount;
+    private final int stringCount;
+    private final int classTable;
+    private final int memberTable;
+    private final int stringOffsets;
+    private final int stringData;
+
+    private SymbolIndex(ByteBuffer buffer) throws IOException {
+        this.buffer = buffer.order(ByteOrder.LITTLE_ENDIAN);
+        if (buffer.capacity() < HEADER_SIZE
+                || buffer.getInt(0) != MAGIC
+                || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a symbol index");
+        }
+        classCount = buffer.getInt(8);
+        stringCount = buffer.getInt(16);
+        classTable = buffer.getInt(20);
+        memberTable = buffer.getInt(24);
+        stringOffsets = buffer.getInt(28);
+        stringData = buffer.getInt(32);
+    }
+
+    /** Maps {@code file}. The mapping stays valid until the index is garbage collected. */
+    public static SymbolIndex open(File file) throws IOException {
+        try (FileInputStream in = new FileInputStream(file)) {
+            FileChannel channel = in.getChannel();
+            return new SymbolIndex(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        }
+    }
+
+    /**
+     * Writes the index of {@code fingerprints}, whose class files are stored as {@code entries}
+     * returns for their entry names.
+     */
+    public static void write(
+            Collection<ApiFingerprint> fingerprints,
+            Function<String, ZipCentralDirectory.Entry> entries,
+            File file)
+            throws IOException {
+        HashMap<String, Integer> ids = new HashMap<>();
+        int memberCount = 0;
+        for (ApiFingerprint fingerprint : fingerprints) {
+            ids.put(fingerprint.name, 0);
+            ids.put(fingerprint.restriction, 0);
+            for (ApiFingerprint.Member member : fingerprint.members) {
+                int split = splitKey(member);
+                ids.put(member.key.substring(0, split), 0);
+                ids.put(member.key.substring(getDescriptorStart(member, split)), 0);
+                ids.put(member.restriction, 0);
+                memberCount++;
+            }
+        }
+        ids.remove(NO_RESTRICTION);
+        byte[][] strings = new byte[ids.size()][];
+        int index = 0;
+        for (String string : ids.keySet()) {
+            strings[index++] = string.getBytes(StandardCharsets.UTF_8);
+        }
+        Arrays.sort(strings, SymbolIndex::compareBytes);
+        for (int i = 0; strings.length > i; i++) {
+            ids.put(new String(strings[i], StandardCharsets.UTF_8), i);
+        }
+        ids.put(NO_RESTRICTION, -1);
+
+        // Sorting by string id sorts by name
+        ApiFingerprint[] classes = fingerprints.toArray(new ApiFingerprint[0]);
+        Arrays.sort(classes, (a, b) -> Integer.compare(ids.get(a.name), ids.get(b.name)));
+
+        int classTable = HEADER_SIZE;
+        int memberTable = classTable + classes.length * CLASS_SIZE;
+        int stringOffsets = memberTable + memberCount * MEMBER_SIZE;
+        int stringData = stringOffsets + (strings.length + 1) * 4;
+        //noinspection IOStreamConstructor
+        try (DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)))) {
+            writeInt(out, MAGIC);
+            writeInt(out, VERSION);
+            writeInt(out, classes.length);
+            writeInt(out, memberCount);
+            writeInt(out, strings.length);
+            writeInt(out, classTable);
+            writeInt(out, memberTable);
+            writeInt(out, stringOffsets);
+            writeInt(out, stringData);
+            writeInt(out, 0);
+
+            int firstMember = 0;
+            for (ApiFingerprint fingerprint : classes) {
+                ZipCentralDirectory.Entry entry = entries.apply(fingerprint.name + ".class");
+                writeInt(out, ids.get(fingerprint.name));
+                writeInt(out, fingerprint.access);
+                writeInt(out, ids.get(fingerprint.restriction));
+                writeInt(out, firstMember);
+                writeInt(out, fingerprint.members.size());
+                writeInt(out, entry != null ? entry.method : -1);
+                writeLong(out, entry != null ? entry.dataOffset : -1);
+                writeInt(out, entry != null ? (int) entry.compressedSize : 0);
+                writeInt(out, entry != null ? (int) entry.size : 0);
+                firstMember += fingerprint.members.size();
+            }
+
+            for (ApiFingerprint fingerprint : classes) {
+                int[][] members = new int[fingerprint.members.size()][];
+                for (int i = 0; members.length > i; i++) {
+                    ApiFingerprint.Member member = fingerprint.members.get(i);
+                    int split = splitKey(member);
+                    members[i] =
+                            new int[] {
+                                ids.get(member.key.substring(0, split)),
+                                ids.get(member.key.substring(getDescriptorStart(member, split))),
+                                member.access,
+                                ids.get(member.restriction)
+                            };
+                }
+                Arrays.sort(
+                        members,
+                        (a, b) ->
+                                a[0] != b[0]
+                                        ? Integer.compare(a[0], b[0])
+                                        : Integer.compare(a[1], b[1]));
+                for (int[] member : members) {
+                    for (int value : member) writeInt(out, value);
+                }
+            }
+
+            int offset = 0;
+            for (byte[] string : strings) {
+                writeInt(out, offset);
+                offset += string.length;
+            }
+            writeInt(out, offset);
+            for (byte[] string : strings) out.write(string);
+        }
+    }
+
+    /** Returns the end of the name in the key of {@code member}. */
+    private static int splitKey(ApiFingerprint.Member member) {
+        return member.kind == ApiFingerprint.Member.FIELD
+                ? member.key.lastIndexOf(':')
+                : member.key.lastIndexOf('(');
+    }
+
+    private static int getDescriptorStart(ApiFingerprint.Member member, int split) {
+        return member.kind == ApiFingerprint.Member.FIELD ? split + 1 : split;
+    }
+
+    private static void writeInt(DataOutputStream out, int value) throws IOException {
+        out.writeInt(Integer.reverseBytes(value));
+    }
+
+    private static void writeLong(DataOutputStream out, long value) throws IOException {
+        out.writeLong(Long.reverseBytes(value));
+    }
+
+    /** Compares unsigned bytes, which orders UTF-8 strings by code point. */
+    private static int compareBytes(byte[] a, byte[] b) {
+        int length = Math.min(a.length, b.length);
+        for (int i = 0; length > i; i++) {
+            int order = (a[i] & 0xFF) - (b[i] & 0xFF);
+            if (order != 0) return order;
+        }
+        return a.length - b.length;
+    }
+
+    /** Returns the class {@code name}, an internal name like {@code android/app/Activity}. */
+    public ClassSymbol findClass(String name) {
+        int id = findString(name);
+        if (id == -1) return null;
+        int index = lowerBound(classTable, CLASS_SIZE, 0, classCount, id);
+        return classCount > index && getClassNameId(index) == id ? readClass(index) : null;
+    }
+
+    /** Returns the classes whose internal names start with {@code prefix}, in name order. */
+    public List<ClassSymbol> findClasses(String prefix) {
+        int[] range = findStrings(prefix);
+        int from = lowerBound(classTable, CLASS_SIZE, 0, classCount, range[0]);
+        int to = lowerBound(classTable, CLASS_SIZE, from, classCount, range[1]);
+        ArrayList<ClassSymbol> result = new ArrayList<>(to - from);
+        for (int i = from; to > i; i++) result.add(readClass(i));
+        return result;
+    }
+
+    /** Returns the member of {@code owner} with this name and descriptor. */
+    public MemberSymbol findMember(ClassSymbol owner, String name, String descriptor) {
+        int nameId = findString(name);
+        int descriptorId = findString(descriptor);
+        if (nameId == -1 || descriptorId == -1) return null;
+        int end = owner.firstMember + owner.memberCount;
+        int from = lowerBound(memberTable, MEMBER_SIZE, owner.firstMember, end, nameId);
+        int to = lowerBound(memberTable, MEMBER_SIZE, from, end, nameId + 1);
+        for (int i = from; to > i; i++) {
+            if (buffer.getInt(memberTable + i * MEMBER_SIZE + 4) == descriptorId) {
+                return readMember(i);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the members of {@code owner} whose names start with {@code prefix}, sorted by name
+     * and descriptor. An empty prefix returns all of them.
+     */
+    public List<MemberSymbol> findMembers(ClassSymbol owner, String prefix) {
+        int[] range = findStrings(prefix);
+        int end = owner.firstMember + owner.memberCount;
+        int from = lowerBound(memberTable, MEMBER_SIZE, owner.firstMember, end, range[0]);
+        int to = lowerBound(memberTable, MEMBER_SIZE, from, end, range[1]);
+        ArrayList<MemberSymbol> result = new ArrayList<>(to - from);
+        for (int i = from; to > i; i++) result.add(readMember(i));
+        return result;
+    }
+
+    public int getClassCount() {
+        return classCount;
+    }
+
+    /**
+     * Returns the first record from {@code from} to {@code to} of a table sorted by the string id
+     * in its first int whose id is at least {@code id}.
+     */
+    private int lowerBound(int table, int recordSize, int from, int to, int id) {
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (buffer.getInt(table + middle * recordSize) < id) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return from;
+    }
+
+    private int getClassNameId(int index) {
+        return buffer.getInt(classTable + index * CLASS_SIZE);
+    }
+
+    /** Returns the id of {@code string}, or -1. */
+    private int findString(String string) {
+        byte[] key = string.getBytes(StandardCharsets.UTF_8);
+        int from = 0;
+        int to = stringCount;
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            int order = compareString(middle, key, false);
+            if (order == 0) return middle;
+            if (order < 0) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return -1;
+    }
+
+    /** Returns the range of ids of the strings that start with {@code prefix}. */
+    private int[] findStrings(String prefix) {
+        byte[] key = prefix.getBytes(StandardCharsets.UTF_8);
+        int from = 0;
+        int to = stringCount;
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (compareString(middle, key, true) < 0) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        int start = from;
+        to = stringCount;
+        while (from < to) {
+            int middle = (from + to) >>> 1;
+            if (compareString(middle, key, true) <= 0) {
+                from = middle + 1;
+            } else {
+                to = middle;
+            }
+        }
+        return new int[] {start, from};
+    }
+
+    /**
+     * Compares string {@code id} to {@code key}. As a {@code prefix}, {@code key} is equal to
+     * every string that starts with it.
+     */
+    private int compareString(int id, byte[] key, boolean prefix) {
+        int start = buffer.getInt(stringOffsets + id * 4);
+        int length = buffer.getInt(stringOffsets + id * 4 + 4) - start;
+        int position = stringData + start;
+        int common = Math.min(length, key.length);
+        for (int i = 0; common > i; i++) {
+            int order = (buffer.get(position + i) & 0xFF) - (key[i] & 0xFF);
+            if (order != 0) return order;
+        }
+        if (prefix && length >= key.length) return 0;
+        return length - key.length;
+    }
+
+    private String getString(int id) {
+        if (id == -1) return null;
+        int start = buffer.getInt(stringOffsets + id * 4);
+        int length = buffer.getInt(stringOffsets + id * 4 + 4) - start;
+        byte[] bytes = new byte[length];
+        for (int i = 0; length > i; i++) bytes[i] = buffer.get(stringData + start + i);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private ClassSymbol readClass(int index) {
+        int position = classTable + index * CLASS_SIZE;
+        return new ClassSymbol(
+                getString(buffer.getInt(position)),
+                buffer.getInt(position + 4),
+                getString(buffer.getInt(position + 8)),
+                buffer.getInt(position + 12),
+                buffer.getInt(position + 16),
+                buffer.getInt(position + 20),
+                buffer.getLong(position + 24),
+                buffer.getInt(position + 32),
+                buffer.getInt(position + 36));
+    }
+
+    private MemberSymbol readMember(int index) {
+        int position = memberTable + index * MEMBER_SIZE;
+        return new MemberSymbol(
+                getString(buffer.getInt(position)),
+                getString(buffer.getInt(position + 4)),
+                buffer.getInt(position + 8),
+                getString(buffer.getInt(position + 12)));
+    }
+
+    public static class ClassSymbol {
+        public final String name;
+        public final int access;
+
+        /** The comma separated hidden API restrictions, or {@code null}. */
+        public final String restriction;
+
+        /** The compression method of the class file in the jar, or -1 if it is not there. */
+        public final int method;
+
+        /** Where the data of the class file starts in the jar, or -1. */
+        public final long dataOffset;
+
+        public final int compressedSize;
+        public final int size;
+
+        final int firstMember;
+        final int memberCount;
+
+        ClassSymbol(
+                String name,
+                int access,
+                String restriction,
+                int firstMember,
+                int memberCount,
+                int method,
+                long dataOffset,
+                int compressedSize,
+                int size) {
+            this.name = name;
+            this.access = access;
+            this.restriction = restriction;
+            this.firstMember = firstMember;
+            this.memberCount = memberCount;
+            this.method = method;
+            this.dataOffset = dataOffset;
+            this.compressedSize = compressedSize;
+            this.size = size;
+        }
+
+        public int getMemberCount() {
+            return memberCount;
+        }
+    }
+
+    public static class MemberSymbol {
+        public final String name;
+        public final String descriptor;
+        public final int access;
+
+        /** The comma separated hidden API restrictions, or {@code null}. */
+        public final String restriction;
+
+        MemberSymbol(String name, String descriptor, int access, String restriction) {
+            this.name = name;
+            this.descriptor = descriptor;
+            this.access = access;
+            this.restriction = restriction;
+        }
+
+        public boolean isMethod() {
+            return descriptor.startsWith("(");
+        }
+    }
+}
@@ -0,0 +1,104 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The supertype edges between the inaccessible classes of a {@link ClassTable}, by class id. The
+ * inaccessible classes the public API depends on are found by walking this graph from the types
+ * that accessible classes refer to, keeping track of visited classes in a bitset.
+ *
+ * <p>The graph is immutable once built, so any number of threads may query it. Bitsets passed to
+ * or returned from it belong to the caller.
+ */
+public class TypeGraph {
+    private static final int[] NO_EDGES = new int[0];
+
+    private final ClassTable classes;
+    private final BitSet inaccessible;
+
+    /** The inaccessible supertypes of every inaccessible class, empty for the other classes. */
+    private final int[][] supertypes;
+
+    public TypeGraph(ClassTable classes) {
+        this.classes = classes;
+        int size = classes.size();
+        inaccessible = new BitSet(size);
+        for (int id = 0; size > id; id++) {
+            if (AndroidApiExtractor.isInaccessible(classes.getAccessFlags(id))) {
+                inaccessible.set(id);
+            }
+        }
+
+        supertypes = new int[size][];
+        for (int id = 0; size > id; id++) {
+            if (!inaccessible.get(id)) {
+                supertypes[id] = NO_EDGES;
+                continue;
+            }
+            int[] interfaces = classes.getInterfaces(id);
+            int[] edges = new int[1 + interfaces.length];
+            int count = addEdge(edges, 0, classes.getSuperclass(id));
+            for (int i : interfaces) {
+                count = addEdge(edges, count, i);
+            }
+            supertypes[id] = count == 0 ? NO_EDGES : Arrays.copyOf(edges, count);
+        }
+    }
+
+    private int addEdge(int[] edges, int count, int id) {
+        if (id == -1 || !inaccessible.get(id)) return count;
+        edges[count] = id;
+        return count + 1;
+    }
+
+    public int size() {
+        return classes.size();
+    }
+
+    /** Marks the class of {@code type}, or of its component type, if it is inaccessible. */
+    public void addRoot(BitSet roots, String type) {
+        if (type == null) return;
+        int id = classes.getId(TypeUtils.getComponentType(type));
+        if (id != -1 && inaccessible.get(id)) roots.set(id);
+    }
+
+    /**
+     * Returns {@code roots} together with every inaccessible class that is reachable from them
+     * through inaccessible supertypes. Each class is visited once, however many roots share it.
+     */
+    public BitSet close(BitSet roots) {
+        BitSet visited = (BitSet) roots.clone();
+        // Every class is pushed at most once
+        int[] worklist = new int[classes.size()];
+        int size = 0;
+        for (int id = visited.nextSetBit(0); id != -1; id = visited.nextSetBit(id + 1)) {
+            worklist[size++] = id;
+        }
+        while (size != 0) {
+            for (int supertype : supertypes[worklist[--size]]) {
+                if (visited.get(supertype)) continue;
+                visited.set(supertype);
+                worklist[size++] = supertype;
+            }
+        }
+        return visited;
+    }
+}
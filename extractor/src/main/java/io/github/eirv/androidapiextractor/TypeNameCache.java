@@ -0,0 +1,164 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import com.android.tools.smali.dexlib2.dexbacked.DexBackedDexFile;
+import com.android.tools.smali.dexlib2.dexbacked.DexBackedField;
+import com.android.tools.smali.dexlib2.dexbacked.DexBackedMethod;
+import com.android.tools.smali.dexlib2.dexbacked.DexBuffer;
+import com.android.tools.smali.dexlib2.dexbacked.raw.FieldIdItem;
+import com.android.tools.smali.dexlib2.dexbacked.raw.MethodIdItem;
+import com.android.tools.smali.dexlib2.dexbacked.raw.ProtoIdItem;
+import com.android.tools.smali.dexlib2.dexbacked.raw.TypeListItem;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Interns type descriptors, internal names and method descriptors. Types that are read through a
+ * dex file are looked up by their index in that file, so they are decoded once per dex file
+ * instead of once per use. Descriptors that come from elsewhere, e.g. annotation values, share a
+ * map from descriptor to internal name.
+ *
+ * <p>All methods are thread-safe.
+ */
+public class TypeNameCache {
+    private final ConcurrentHashMap<String, String> cfNames = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<DexBackedDexFile, DexTypes> dexTypes =
+            new ConcurrentHashMap<>();
+
+    /** Returns {@link TypeUtils#toCfName(String)} of {@code descriptor}, interned. */
+    public String toCfName(String descriptor) {
+        if (descriptor == null) return null;
+        String cfName = cfNames.get(descriptor);
+        if (cfName == null) {
+            cfName = TypeUtils.toCfName(descriptor);
+            String previous = cfNames.putIfAbsent(descriptor, cfName);
+            if (previous != null) cfName = previous;
+        }
+        return cfName;
+    }
+
+    public String[] toCfName(List<String> descriptors) {
+        String[] result = new String[descriptors.size()];
+        for (int i = 0; result.length > i; i++) {
+            result[i] = toCfName(descriptors.get(i));
+        }
+        return result;
+    }
+
+    public String getType(DexBackedDexFile dexFile, int typeIndex) {
+        return getDexTypes(dexFile).getType(typeIndex);
+    }
+
+    public String getFieldType(DexBackedField field) {
+        DexBackedDexFile dexFile = field.dexFile;
+        int offset = dexFile.getFieldSection().getOffset(field.fieldIndex);
+        return getType(dexFile, dexFile.getBuffer().readUshort(offset + FieldIdItem.TYPE_OFFSET));
+    }
+
+    public String getDefiningClass(DexBackedMethod method) {
+        DexBackedDexFile dexFile = method.dexFile;
+        int offset = dexFile.getMethodSection().getOffset(method.methodIndex);
+        return getType(
+                dexFile, dexFile.getBuffer().readUshort(offset + MethodIdItem.CLASS_OFFSET));
+    }
+
+    public String getReturnType(DexBackedMethod method) {
+        DexBackedDexFile dexFile = method.dexFile;
+        int offset = dexFile.getProtoSection().getOffset(getProtoIndex(method));
+        DexBuffer buffer = dexFile.getBuffer();
+        return getType(dexFile, buffer.readSmallUint(offset + ProtoIdItem.RETURN_TYPE_OFFSET));
+    }
+
+    /** Returns {@link TypeUtils#getMethodDescriptor} of {@code method}, interned per prototype. */
+    public String getMethodDescriptor(DexBackedMethod method) {
+        return getDexTypes(method.dexFile).getMethodDescriptor(getProtoIndex(method));
+    }
+
+    /** Drops everything, so that the dex files can be released. */
+    public void clear() {
+        cfNames.clear();
+        dexTypes.clear();
+    }
+
+    private static int getProtoIndex(DexBackedMethod method) {
+        DexBackedDexFile dexFile = method.dexFile;
+        int offset = dexFile.getMethodSection().getOffset(method.methodIndex);
+        return dexFile.getBuffer().readUshort(offset + MethodIdItem.PROTO_OFFSET);
+    }
+
+    private DexTypes getDexTypes(DexBackedDexFile dexFile) {
+        DexTypes types = dexTypes.get(dexFile);
+        if (types == null) {
+            types = new DexTypes(dexFile);
+            DexTypes previous = dexTypes.putIfAbsent(dexFile, types);
+            if (previous != null) types = previous;
+        }
+        return types;
+    }
+
+    private static class DexTypes {
+        final DexBackedDexFile dexFile;
+
+        // Filled in lazily without locking. Strings are immutable, so a thread that sees a stale
+        // null merely decodes the same value again
+        final String[] types;
+        final String[] methodDescriptors;
+
+        DexTypes(DexBackedDexFile dexFile) {
+            this.dexFile = dexFile;
+            types = new String[dexFile.getTypeSection().size()];
+            methodDescriptors = new String[dexFile.getProtoSection().size()];
+        }
+
+        String getType(int index) {
+            String type = types[index];
+            if (type == null) {
+                type = dexFile.getTypeSection().get(index);
+                types[index] = type;
+            }
+            return type;
+        }
+
+        String getMethodDescriptor(int protoIndex) {
+            String descriptor = methodDescriptors[protoIndex];
+            if (descriptor != null) return descriptor;
+
+            DexBuffer buffer = dexFile.getBuffer();
+            int offset = dexFile.getProtoSection().getOffset(protoIndex);
+            int parametersOffset = buffer.readSmallUint(offset + ProtoIdItem.PARAMETERS_OFFSET);
+            StringBuilder sb = new StringBuilder();
+            sb.append('(');
+            if (parametersOffset > 0) {
+                DexBuffer dataBuffer = dexFile.getDataBuffer();
+                int size = dataBuffer.readSmallUint(parametersOffset + TypeListItem.SIZE_OFFSET);
+                int list = parametersOffset + TypeListItem.LIST_OFFSET;
+                for (int i = 0; size > i; i++) {
+                    sb.append(TypeUtils.wrapType(getType(dataBuffer.readUshort(list + 2 * i))));
+                }
+            }
+            sb.append(')');
+            int returnType = buffer.readSmallUint(offset + ProtoIdItem.RETURN_TYPE_OFFSET);
+            sb.append(TypeUtils.wrapType(getType(returnType)));
+            descriptor = sb.toString();
+            methodDescriptors[protoIndex] = descriptor;
+            return descriptor;
+        }
+    }
+}
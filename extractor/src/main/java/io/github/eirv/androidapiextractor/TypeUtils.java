@@ -129,33 +129,52 @@ public class TypeUtils {
     public static String getSignature(Set<? extends Annotation> annotations) {
         for (Annotation annotation : annotations) {
             if (TypeUtils.TYPE_DALVIK_SIGNATURE.equals(annotation.getType())) {
-                List<? extends EncodedValue> value =
-                        ((ArrayEncodedValue) assertAndGetSingleValue(annotation)).getValue();
-                StringBuilder sb = new StringBuilder();
-                for (EncodedValue childValue : value) {
-                    sb.append(wrapType(((StringEncodedValue) childValue).getValue()));
-                }
-                return sb.toString();
+                return getSignature(annotation);
             }
         }
         return null;
     }
 
+    /** Joins the parts of a {@code dalvik.annotation.Signature} annotation. */
+    public static String getSignature(Annotation annotation) {
+        List<? extends EncodedValue> value =
+                ((ArrayEncodedValue) assertAndGetSingleValue(annotation)).getValue();
+        StringBuilder sb = new StringBuilder();
+        for (EncodedValue childValue : value) {
+            sb.append(wrapType(((StringEncodedValue) childValue).getValue()));
+        }
+        return sb.toString();
+    }
+
     public static String[] getExceptions(Set<? extends Annotation> annotations) {
         for (Annotation annotation : annotations) {
             if (TypeUtils.TYPE_DALVIK_THROWS.equals(annotation.getType())) {
-                List<? extends EncodedValue> value =
-                        ((ArrayEncodedValue) assertAndGetSingleValue(annotation)).getValue();
-                List<String> result = new ArrayList<>();
-                for (EncodedValue childValue : value) {
-                    result.add(TypeUtils.toCfName(((TypeEncodedValue) childValue).getValue()));
-                }
-                return result.toArray(new String[0]);
+                return getExceptions(annotation);
             }
         }
         return null;
     }
 
+    /** Returns the internal names listed by a {@code dalvik.annotation.Throws} annotation. */
+    public static String[] getExceptions(Annotation annotation) {
+        List<String> result = getTypes(annotation);
+        for (int i = 0; result.size() > i; i++) {
+            result.set(i, TypeUtils.toCfName(result.get(i)));
+        }
+        return result.toArray(new String[0]);
+    }
+
+    /** Returns the descriptors held by an annotation whose single value is an array of types. */
+    public static List<String> getTypes(Annotation annotation) {
+        List<? extends EncodedValue> value =
+                ((ArrayEncodedValue) assertAndGetSingleValue(annotation)).getValue();
+        List<String> result = new ArrayList<>(value.size());
+        for (EncodedValue childValue : value) {
+            result.add(((TypeEncodedValue) childValue).getValue());
+        }
+        return result;
+    }
+
     public static EncodedValue assertAndGetSingleValue(Annotation annotation) {
         Set<? extends AnnotationElement> elements = annotation.getElements();
         if (elements.size() != 1) {
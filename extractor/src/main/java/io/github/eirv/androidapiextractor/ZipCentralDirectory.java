@@ -0,0 +1,203 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.ZipException;
+
+/**
+ * Reads the central directory of a zip file so that its entries can be copied without being
+ * inflated. Only the fields needed for that are kept.
+ */
+public class ZipCentralDirectory {
+    private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+    private static final int END_SIGNATURE = 0x06054b50;
+    private static final int ZIP64_END_SIGNATURE = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIGNATURE = 0x07064b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIZE = 22;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private ZipCentralDirectory() {}
+
+    public static List<Entry> read(FileChannel channel) throws IOException {
+        long fileSize = channel.size();
+        long endOffset = findEnd(channel, fileSize);
+        ByteBuffer end = readFully(channel, endOffset, END_SIZE);
+        long count = end.getShort(10) & 0xFFFF;
+        long centralSize = end.getInt(12) & ZIP64_MAGIC;
+        long centralOffset = end.getInt(16) & ZIP64_MAGIC;
+
+        if (count == 0xFFFF || centralSize == ZIP64_MAGIC || centralOffset == ZIP64_MAGIC) {
+            if (endOffset >= 20) {
+                ByteBuffer locator = readFully(channel, endOffset - 20, 20);
+                if (locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                    ByteBuffer zip64End = readFully(channel, locator.getLong(8), 56);
+                    if (zip64End.getInt(0) != ZIP64_END_SIGNATURE) {
+                        throw new ZipException("invalid zip64 end of central directory");
+                    }
+                    count = zip64End.getLong(32);
+                    centralSize = zip64End.getLong(40);
+                    centralOffset = zip64End.getLong(48);
+                }
+            }
+        }
+        if (centralOffset + centralSize > fileSize || centralSize > Integer.MAX_VALUE) {
+            throw new ZipException("invalid central directory");
+        }
+
+        ByteBuffer central = readFully(channel, centralOffset, (int) centralSize);
+        ArrayList<Entry> entries = new ArrayList<>((int) Math.min(count, 0x10000));
+        ByteBuffer localHeader = ByteBuffer.allocate(LOCAL_HEADER_SIZE);
+        localHeader.order(ByteOrder.LITTLE_ENDIAN);
+        int position = 0;
+        for (long i = 0; count > i; i++) {
+            if (central.getInt(position) != CENTRAL_HEADER_SIGNATURE) {
+                throw new ZipException("invalid central directory header");
+            }
+            int method = central.getShort(position + 10) & 0xFFFF;
+            long crc = central.getInt(position + 16) & ZIP64_MAGIC;
+            long compressedSize = central.getInt(position + 20) & ZIP64_MAGIC;
+            long size = central.getInt(position + 24) & ZIP64_MAGIC;
+            int nameLength = central.getShort(position + 28) & 0xFFFF;
+            int extraLength = central.getShort(position + 30) & 0xFFFF;
+            int commentLength = central.getShort(position + 32) & 0xFFFF;
+            long localOffset = central.getInt(position + 42) & ZIP64_MAGIC;
+
+            int namePosition = position + CENTRAL_HEADER_SIZE;
+            byte[] name = new byte[nameLength];
+            central.position(namePosition);
+            central.get(name);
+
+            // Values that did not fit are stored in the zip64 extra field, in this order
+            int extra = namePosition + nameLength;
+            int extraEnd = extra + extraLength;
+            while (extraEnd - extra >= 4) {
+                int id = central.getShort(extra) & 0xFFFF;
+                int length = central.getShort(extra + 2) & 0xFFFF;
+                if (id == ZIP64_EXTRA_ID) {
+                    int field = extra + 4;
+                    if (size == ZIP64_MAGIC) {
+                        size = central.getLong(field);
+                        field += 8;
+                    }
+                    if (compressedSize == ZIP64_MAGIC) {
+                        compressedSize = central.getLong(field);
+                        field += 8;
+                    }
+                    if (localOffset == ZIP64_MAGIC) {
+                        localOffset = central.getLong(field);
+                    }
+                    break;
+                }
+                extra += 4 + length;
+            }
+
+            // The local header may carry a different extra field, e.g. zipalign padding
+            localHeader.clear();
+            readFully(channel, localOffset, localHeader);
+            if (localHeader.getInt(0) != LOCAL_HEADER_SIGNATURE) {
+                throw new ZipException("invalid local header");
+            }
+            long dataOffset =
+                    localOffset
+                            + LOCAL_HEADER_SIZE
+                            + (localHeader.getShort(26) & 0xFFFF)
+                            + (localHeader.getShort(28) & 0xFFFF);
+            if (dataOffset + compressedSize > fileSize) {
+                throw new ZipException("truncated entry");
+            }
+
+            entries.add(
+                    new Entry(
+                            new String(name, StandardCharsets.UTF_8),
+                            method,
+                            crc,
+                            size,
+                            compressedSize,
+                            dataOffset));
+            position = extraEnd + commentLength;
+        }
+        return entries;
+    }
+
+    private static long findEnd(FileChannel channel, long fileSize) throws IOException {
+        if (fileSize < END_SIZE) throw new ZipException("not a zip file");
+        int length = (int) Math.min(fileSize, END_SIZE + MAX_COMMENT_SIZE);
+        long start = fileSize - length;
+        ByteBuffer tail = readFully(channel, start, length);
+        for (int i = length - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) != END_SIGNATURE) continue;
+            int commentLength = tail.getShort(i + 20) & 0xFFFF;
+            if (i + END_SIZE + commentLength == length) return start + i;
+        }
+        throw new ZipException("end of central directory not found");
+    }
+
+    private static ByteBuffer readFully(FileChannel channel, long offset, int length)
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        readFully(channel, offset, buffer);
+        return buffer;
+    }
+
+    private static void readFully(FileChannel channel, long offset, ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            int count = channel.read(buffer, offset);
+            if (count < 0) throw new EOFException();
+            offset += count;
+        }
+    }
+
+    public static class Entry {
+        public final String name;
+        public final int method;
+        public final long crc;
+        public final long size;
+        public final long compressedSize;
+        public final long dataOffset;
+
+        public Entry(
+                String name,
+                int method,
+                long crc,
+                long size,
+                long compressedSize,
+                long dataOffset) {
+            this.name = name;
+            this.method = method;
+            this.crc = crc;
+            this.size = size;
+            this.compressedSize = compressedSize;
+            this.dataOffset = dataOffset;
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+/**
+ * Cancels an {@link AndroidApiExtractor#extractAsync} run halfway through the second jar, and
+ * checks that running it again resumes from the cache and the checkpoint and writes the same jar
+ * as a run that was never interrupted.
+ */
+public class CheckpointResumeTest {
+    // The second jar has 1000 classes
+    private static final int CANCEL_AFTER = 300;
+
+    @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+    private List<String> jars;
+
+    @Before
+    public void setUp() throws IOException {
+        jars = TestJars.write(temp.newFolder("jars"), 2000);
+    }
+
+    @Test
+    public void resumesCancelledExtraction() throws Exception {
+        File expected = new File(temp.getRoot(), "expected.jar");
+        AndroidApiExtractor uninterrupted = newExtractor(temp.newFolder("fresh"));
+        assertEquals(expected, uninterrupted.extractAsync(jars, expected).get());
+
+        File cacheDir = temp.newFolder("cache");
+        AndroidApiExtractor extractor = newExtractor(cacheDir);
+        extractor.setListener(
+                new ExtractionListener() {
+                    private int transformPhases;
+
+                    @Override
+                    public void onPhaseStarted(String phase) {
+                        if (phase.equals(ExtractionMetrics.PHASE_TRANSFORM)) transformPhases++;
+                    }
+
+                    @Override
+                    public void onProgress(String phase, long done, long total) {
+                        if (phase.equals(ExtractionMetrics.PHASE_TRANSFORM)
+                                && transformPhases == 2
+                                && done >= CANCEL_AFTER) {
+                            extractor.cancel();
+                        }
+                    }
+                });
+        File output = new File(temp.getRoot(), "output.jar");
+        ExtractionTask task = extractor.extractAsync(jars, output);
+        try {
+            task.get();
+            fail("Not cancelled");
+        } catch (CancellationException e) {
+            // Expected
+        }
+        assertTrue(task.isDone());
+        assertTrue(task.isCancelled());
+        assertFalse(output.exists());
+        assertEquals(1, listPartials(cacheDir).length);
+
+        // The same extractor, to check that nothing of the cancelled run is left over
+        extractor.setListener(null);
+        ExtractionTask resumed = extractor.extractAsync(jars, output);
+        assertEquals(output, resumed.get());
+        assertFalse(resumed.isCancelled());
+        assertEquals(0, listPartials(cacheDir).length);
+        assertArrayEquals(
+                Files.readAllBytes(expected.toPath()), Files.readAllBytes(output.toPath()));
+    }
+
+    private static AndroidApiExtractor newExtractor(File cacheDir) {
+        AndroidApiExtractor extractor = new AndroidApiExtractor(TestJars.API_LEVEL);
+        extractor.setResourceApk(null);
+        extractor.setCacheDir(cacheDir);
+        // One thread, so that the run stops right where it is cancelled
+        extractor.setParallelism(1);
+        return extractor;
+    }
+
+    private static File[] listPartials(File cacheDir) {
+        return cacheDir.listFiles((dir, name) -> name.endsWith(".partial"));
+    }
+}
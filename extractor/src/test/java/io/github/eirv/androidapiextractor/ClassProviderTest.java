@@ -0,0 +1,100 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import com.google.common.primitives.Bytes;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/** Checks that {@link ClassProvider} materializes the same bytes as a full extraction. */
+public class ClassProviderTest {
+    private static final String ANNOTATION = "android/annotation/HiddenApiRestriction";
+
+    @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+    private List<String> jars;
+    private Map<String, byte[]> expected;
+
+    @Before
+    public void setUp() throws IOException {
+        jars = TestJars.write(temp.getRoot(), 200);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        newExtractor().extractTo(jars, out);
+        expected = TestJars.readEntries(out.toByteArray());
+    }
+
+    @Test
+    public void classesMatchFullExtraction() throws IOException {
+        ClassProvider provider = newExtractor().openClassProvider(jars, 16);
+        for (String name : new String[] {"android/test/p1/C1", "android/test/p2/C6"}) {
+            assertArrayEquals(name, expected.get(name + ".class"), provider.classBytes(name));
+            for (String dependency : provider.getDependencies(name)) {
+                assertArrayEquals(
+                        dependency,
+                        expected.get(dependency + ".class"),
+                        provider.classBytes(dependency));
+            }
+        }
+        assertNull(provider.classBytes("android/test/p0/Missing"));
+    }
+
+    @Test
+    public void annotationOnlyOnceUsed() throws IOException {
+        String unrestricted = null;
+        String restricted = null;
+        byte[] descriptor = ("L" + ANNOTATION + ";").getBytes(StandardCharsets.UTF_8);
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            String name = entry.getKey();
+            if (!name.startsWith("android/test/")) continue;
+            if (Bytes.indexOf(entry.getValue(), descriptor) == -1) {
+                if (unrestricted == null) unrestricted = name;
+            } else {
+                if (restricted == null) restricted = name;
+            }
+        }
+        assertNotNull(unrestricted);
+        assertNotNull(restricted);
+
+        ClassProvider provider = newExtractor().openClassProvider(jars, 16);
+        assertNull(provider.classBytes(ANNOTATION));
+        assertNotNull(provider.classBytes(unrestricted.replace(".class", "")));
+        assertNull(provider.classBytes(ANNOTATION));
+        assertNotNull(provider.classBytes(restricted.replace(".class", "")));
+        assertArrayEquals(expected.get(ANNOTATION + ".class"), provider.classBytes(ANNOTATION));
+    }
+
+    private static AndroidApiExtractor newExtractor() {
+        AndroidApiExtractor extractor = new AndroidApiExtractor(TestJars.API_LEVEL);
+        extractor.setResourceApk(null);
+        extractor.setParallelism(1);
+        return extractor;
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class LogSinkTest {
+    @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void pollsOnlyNewOutput() throws IOException {
+        LogSink sink = new LogSink(16, null);
+        assertNull(sink.pollTail());
+        write(sink, "a\nb");
+        assertEquals("a\nb", sink.pollTail());
+        assertNull(sink.pollTail());
+        write(sink, "c");
+        assertEquals("a\nbc", sink.pollTail());
+        assertEquals(4, sink.getWritten());
+    }
+
+    @Test
+    public void writeLargerThanCapacityKeepsItsEnd() throws IOException {
+        LogSink sink = new LogSink(8, null);
+        write(sink, "0123456789abc");
+        assertEquals("56789abc", sink.pollTail());
+        assertEquals(13, sink.getWritten());
+    }
+
+    @Test
+    public void wrapsInTheMiddleOfTheRing() throws IOException {
+        LogSink sink = new LogSink(8, null);
+        write(sink, "abcde");
+        write(sink, "fghij");
+        assertEquals("cdefghij", sink.pollTail());
+        // Wraps again, across the end of the ring
+        write(sink, "klmnop");
+        assertEquals("ijklmnop", sink.pollTail());
+    }
+
+    @Test
+    public void truncatedTailStartsAfterALineBreak() throws IOException {
+        LogSink sink = new LogSink(10, null);
+        write(sink, "line1\nline2\nline3");
+        assertEquals("line3", sink.pollTail());
+
+        sink = new LogSink(8, null);
+        write(sink, "ab\ncd");
+        write(sink, "ef\ngh");
+        assertEquals("cdef\ngh", sink.pollTail());
+    }
+
+    @Test
+    public void truncatedTailNeverStartsInsideACharacter() throws IOException {
+        // The last four bytes are the second byte of é and all three bytes of €
+        LogSink sink = new LogSink(4, null);
+        write(sink, "aé€");
+        assertEquals("€", sink.pollTail());
+
+        // A line break that is the last byte leaves nothing to start after
+        sink = new LogSink(4, null);
+        write(sink, "é€\n");
+        assertEquals("€\n", sink.pollTail());
+    }
+
+    @Test
+    public void fileReceivesEverything() throws IOException {
+        File file = temp.newFile("log.txt");
+        LogSink sink = new LogSink(4, file);
+        write(sink, "first line\n");
+        write(sink, "second line\n");
+        sink.close();
+        // The tail keeps taking writes once the file is closed
+        write(sink, "third\n");
+        assertEquals("first line\nsecond line\n", read(file));
+        assertEquals("ird\n", sink.pollTail());
+    }
+
+    private static void write(LogSink sink, String s) throws IOException {
+        sink.write(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
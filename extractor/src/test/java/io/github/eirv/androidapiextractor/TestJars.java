@@ -0,0 +1,164 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import static org.objectweb.asm.Opcodes.ACC_NATIVE;
+import static org.objectweb.asm.Opcodes.ACC_PUBLIC;
+
+import com.android.tools.smali.dexlib2.HiddenApiRestriction;
+import com.android.tools.smali.dexlib2.Opcodes;
+import com.android.tools.smali.dexlib2.iface.ClassDef;
+import com.android.tools.smali.dexlib2.immutable.ImmutableClassDef;
+import com.android.tools.smali.dexlib2.immutable.ImmutableField;
+import com.android.tools.smali.dexlib2.immutable.ImmutableMethod;
+import com.android.tools.smali.dexlib2.immutable.ImmutableMethodParameter;
+import com.android.tools.smali.dexlib2.writer.io.MemoryDataStore;
+import com.android.tools.smali.dexlib2.writer.pool.DexPool;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Writes small boot jars for the tests. The core jar has chains of subclasses and package-private
+ * classes that leak into public signatures, some with hidden API flags. The second jar extends
+ * and refers to classes of the core jar, inaccessible ones included, and defines one of them
+ * again.
+ */
+final class TestJars {
+    static final int API_LEVEL = 34;
+
+    private static final Opcodes OPCODES = Opcodes.forApi(API_LEVEL);
+    private static final String PACKAGE = "Landroid/test/";
+    private static final int PACKAGES = 4;
+    private static final int DEPTH = 5;
+
+    private TestJars() {}
+
+    /** Writes the core jar and the jar that depends on it, in loading order. */
+    static List<String> write(File dir, int classCount) throws IOException {
+        ArrayList<ClassDef> core = new ArrayList<>();
+        for (int i = 0; classCount > i; i++) {
+            core.add(makeClass("C", i, i % DEPTH == 0 ? null : getType("C", i - 1), classCount));
+        }
+        ArrayList<ClassDef> ext = new ArrayList<>();
+        for (int i = 0; classCount / 2 > i; i++) {
+            // Extends public core classes only, which are those not divisible by four minus one
+            ext.add(makeClass("D", i, getType("C", i * 4 % classCount), classCount));
+        }
+        ext.add(makeClass("C", 0, null, classCount));
+        return Arrays.asList(
+                writeJar(new File(dir, "core.jar"), core).getPath(),
+                writeJar(new File(dir, "ext.jar"), ext).getPath());
+    }
+
+    /** Returns the entries of a jar by name, in the order they are stored. */
+    static Map<String, byte[]> readEntries(byte[] jar) throws IOException {
+        LinkedHashMap<String, byte[]> entries = new LinkedHashMap<>();
+        try (ZipInputStream in = new ZipInputStream(new ByteArrayInputStream(jar))) {
+            byte[] buffer = new byte[8192];
+            for (ZipEntry entry; (entry = in.getNextEntry()) != null; ) {
+                ByteArrayOutputStream data = new ByteArrayOutputStream();
+                for (int count; (count = in.read(buffer)) != -1; ) {
+                    data.write(buffer, 0, count);
+                }
+                entries.put(entry.getName(), data.toByteArray());
+            }
+        }
+        return entries;
+    }
+
+    static Map<String, byte[]> readEntries(File jar) throws IOException {
+        return readEntries(Files.readAllBytes(jar.toPath()));
+    }
+
+    private static String getType(String prefix, int i) {
+        return PACKAGE + "p" + i % PACKAGES + "/" + prefix + i + ";";
+    }
+
+    private static ClassDef makeClass(String prefix, int i, String superclass, int classCount) {
+        String type = getType(prefix, i);
+        // Every fourth class is package-private
+        int accessFlags = i % 4 == 3 ? 0 : ACC_PUBLIC;
+        Set<HiddenApiRestriction> restrictions =
+                i % 6 == 0
+                        ? EnumSet.of(HiddenApiRestriction.GREYLIST)
+                        : Collections.<HiddenApiRestriction>emptySet();
+        List<ImmutableField> fields =
+                Collections.singletonList(
+                        new ImmutableField(
+                                type,
+                                "f" + i,
+                                getType("C", (i * 7 + 3) % classCount),
+                                ACC_PUBLIC,
+                                null,
+                                null,
+                                restrictions));
+        List<ImmutableMethod> methods =
+                Collections.singletonList(
+                        new ImmutableMethod(
+                                type,
+                                "m" + i,
+                                Collections.singletonList(
+                                        new ImmutableMethodParameter(
+                                                getType("C", (i * 5 + 2) % classCount),
+                                                null,
+                                                null)),
+                                getType("C", (i * 3 + 1) % classCount),
+                                ACC_PUBLIC | ACC_NATIVE,
+                                null,
+                                restrictions,
+                                null));
+        return new ImmutableClassDef(
+                type,
+                accessFlags,
+                superclass != null ? superclass : TypeUtils.TYPE_OBJECT,
+                null,
+                null,
+                null,
+                fields,
+                methods);
+    }
+
+    private static File writeJar(File file, List<ClassDef> classDefs) throws IOException {
+        DexPool pool = new DexPool(OPCODES);
+        for (ClassDef classDef : classDefs) {
+            pool.internClass(classDef);
+        }
+        MemoryDataStore store = new MemoryDataStore();
+        pool.writeTo(store);
+        //noinspection IOStreamConstructor
+        try (JarWriter jar = new JarWriter(new FileOutputStream(file), JarWriter.STORED)) {
+            jar.write("classes.dex", Arrays.copyOf(store.getBuffer(), store.getSize()));
+        }
+        return file;
+    }
+}
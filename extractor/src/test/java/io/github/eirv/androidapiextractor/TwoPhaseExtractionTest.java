@@ -0,0 +1,84 @@
+/*
+ * This file is part of AndroidApiExtractor.
+ *
+ * AndroidApiExtractor is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * AndroidApiExtractor is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with AndroidApiExtractor.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package io.github.eirv.androidapiextractor;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Checks that the low-memory mode of {@link AndroidApiExtractor#extractTo}, which loads one jar
+ * at a time, produces the same entries as the single-phase mode. Only the order may differ,
+ * since the two-phase mode sorts the entries per jar.
+ */
+public class TwoPhaseExtractionTest {
+    @Rule public TemporaryFolder temp = new TemporaryFolder();
+
+    private List<String> jars;
+
+    @Before
+    public void setUp() throws IOException {
+        jars = TestJars.write(temp.getRoot(), 2000);
+    }
+
+    @Test
+    public void twoPhasesMatchOnePhase() throws IOException {
+        Map<String, byte[]> expected = extract(0, 4);
+        // Any budget below the size of the inputs forces two phases
+        Map<String, byte[]> actual = extract(1, 4);
+
+        assertTrue(expected.containsKey("android/test/p3/C3.class"));
+        assertTrue(expected.containsKey("android/annotation/HiddenApiRestriction.class"));
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+        }
+    }
+
+    @Test
+    public void twoPhasesOnOneThread() throws IOException {
+        Map<String, byte[]> expected = extract(0, 1);
+        Map<String, byte[]> actual = extract(1, 1);
+
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<String, byte[]> entry : expected.entrySet()) {
+            assertArrayEquals(entry.getKey(), entry.getValue(), actual.get(entry.getKey()));
+        }
+    }
+
+    private Map<String, byte[]> extract(long heapBudget, int parallelism) throws IOException {
+        AndroidApiExtractor extractor = new AndroidApiExtractor(TestJars.API_LEVEL);
+        extractor.setResourceApk(null);
+        extractor.setHeapBudget(heapBudget);
+        extractor.setParallelism(parallelism);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        extractor.extractTo(jars, out);
+        return new TreeMap<>(TestJars.readEntries(out.toByteArray()));
+    }
+}
@@ -21,3 +21,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "AndroidApiExtractor"
 include(":app")
+include(":extractor")
+include(":benchmark")